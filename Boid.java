@@ -9,6 +9,9 @@
  *  matchVelocity(nearest neighbors)
  *  plungeDeeper(nearest neighbors)
  *  returnToWorld(nearest neighbors)
+ *
+ *  and, if given the far field of the whole flock, a flock-scale
+ *  cohesion and alignment toward it.
  *  
  *  plungeDeeper models a Boid's desire to be deeper inside the flock.
  * 
@@ -29,6 +32,8 @@ public class Boid {
     private static final double VELOCITY_MATCH_WEIGHT = 1;
     private static final double PLUNGE_DEEPER_WEIGHT = 1;
     private static final double RETURN_TO_ORIGIN_WEIGHT = 0.05;
+    private static final double FAR_COHESION_WEIGHT = 0.01;
+    private static final double FAR_ALIGNMENT_WEIGHT = 1;
 
     // Agiility of a Boid is given by this value. Increase and they can react
     // more quickly (and also have a higher max velocity, due to simplicity
@@ -38,38 +43,44 @@ public class Boid {
 
 
 
-    // x,y stored as a Point2D
-    // In the context of the Boid simulator, this is a little bit of
-    // an awkward way to structure the code, since we map from Point2D 
-    // to Boid -- i.e. they key is stored both in the symbol table
-    // and in the value mapped to by the symbol table.
-
-    // Despite this awkardness, this seems to be the best solution.
+    // A Boid is a view of slot i of a Flock, which stores the positions
+    // and velocities of all boids in primitive arrays. The symbol table
+    // maps each boid's Point2D position to its view.
 
-    private Point2D position;
-    private Vector velocity;
+    private final Flock flock;
+    private final int i;
 
-    // create a boid at (x, y) with zero velocity
+    // create a boid at (x, y) with zero velocity, in a flock of its own
     public Boid(double x, double y) {
-        position = new Point2D(x, y);
-        velocity = new Vector(2);
+        this(x, y, 0.0, 0.0);
     }
 
     public Boid(double x, double y, double xvel, double yvel) {
-        position = new Point2D(x, y);
-        velocity = new Vector(xvel, yvel);
+        this(new Flock(1), 0);
+        flock.set(0, x, y, xvel, yvel);
+    }
+
+    // create a view of boid i of the flock
+    public Boid(Flock flock, int i) {
+        this.flock = flock;
+        this.i = i;
+    }
+
+    // the slot of this boid in its flock
+    public int index() {
+        return i;
     }
 
     public Point2D position() {
-        return position;
+        return new Point2D(x(), y());
     }
 
     public double x() {
-        return position.x();
+        return flock.x(i);
     }
 
     public double y() {
-        return position.y();
+        return flock.y(i);
     }
 
     // Each Boid tries to avoid collisions with its neighbors. This method
@@ -123,7 +134,7 @@ public class Boid {
         for (Boid b : neighbors)
         {
             Vector neighborVelocity = b.getVelocity();
-            Vector matchingVector = neighborVelocity.minus(velocity);            
+            Vector matchingVector = neighborVelocity.minus(getVelocity());            
             requestedVector = requestedVector.plus(matchingVector);
         }
         return requestedVector;        
@@ -143,7 +154,6 @@ public class Boid {
         }
 
         centroid = centroid.times(1.0 / neighborCnt);
-        Boid centroidPoint = new Boid(centroid.cartesian(0), centroid.cartesian(1));
         Vector myPosition = new Vector(x(), y());
         requestedVector = centroid.minus(myPosition);
         return requestedVector;        
@@ -190,23 +200,116 @@ public class Boid {
 
     public Vector getVelocity()
     {
-        return velocity;
+        return new Vector(flock.vx(i), flock.vy(i));
     }    
 
     public String toString() {
-        return "" + x() + " " + y() + " " + " " + velocity;
+        return "" + x() + " " + y() + " " + " " + getVelocity();
     }
 
     // Updates position and velocity using rules given above.
+    //
+    // This is the innermost loop of the simulation, run for every friend
+    // of every boid on every frame, so rather than calling
+    // desiredAcceleration it applies the same rules in a single sweep over
+    // the neighbors, summing into local variables instead of allocating
+    // Vectors. The sums are formed in the same order as the rule methods
+    // above, so the result is identical to theirs. A null hawk, when there
+    // is none to avoid, adds no thrust.
+
+    public void updatePositionAndVelocity(Iterable<Boid> neighbors, Hawk hawk)
+    {
+        update(neighbors, hawk, null);
+    }
+
+    // Updates position and velocity using the rules above plus a pull
+    // toward the position and velocity of the far field, as written by
+    // KdTreeST.farField(): farField[1], farField[2] is its weighted mean
+    // position and farField[3], farField[4] its weighted mean velocity.
+
+    public void updatePositionAndVelocity(Iterable<Boid> neighbors, Hawk hawk, double[] farField)
+    {
+        update(neighbors, hawk, farField);
+    }
 
-    public Vector updatePositionAndVelocity(Iterable<Boid> neighbors, Hawk hawk)
+    // the rules, with the far-field term only if farField is not null
+    private void update(Iterable<Boid> neighbors, Hawk hawk, double[] farField)
     {
-        double x = x() + velocity.cartesian(0);
-        double y = y() + velocity.cartesian(1);
-        position = new Point2D(x, y);
-        Vector desire = desiredAcceleration(neighbors, hawk);
-        velocity = velocity.plus(desire);
-        return desire;
+        double vx = flock.vx(i);
+        double vy = flock.vy(i);
+        double x = flock.x(i) + vx;
+        double y = flock.y(i) + vy;
+        flock.setPosition(i, x, y);
+
+        double avoidX = 0.0, avoidY = 0.0;      // avoidCollision(neighbors)
+        double matchX = 0.0, matchY = 0.0;      // matchVelocity(neighbors)
+        double centroidX = 0.0, centroidY = 0.0; // plungeDeeper(neighbors)
+        double neighborCnt = 0;
+        boolean avoiding = true;
+        for (Boid b : neighbors)
+        {
+            double bx = b.x();
+            double by = b.y();
+            if (avoiding)
+            {
+                double dx = x - bx;
+                double dy = y - by;
+                double distanceTo = Math.sqrt(dx*dx + dy*dy);
+                //don't count self, nor any neighbor after it
+                if (distanceTo == 0.0)
+                    avoiding = false;
+                else
+                {
+                    avoidX += (1.0 / distanceTo) * dx;
+                    avoidY += (1.0 / distanceTo) * dy;
+                }
+            }
+            matchX += b.flock.vx(b.i) - vx;
+            matchY += b.flock.vy(b.i) - vy;
+            centroidX += bx;
+            centroidY += by;
+            neighborCnt++;
+        }
+
+        // avoidCollision(hawk), unless there is no hawk to avoid
+        double hawkAvoidX = 0.0, hawkAvoidY = 0.0;
+        if (hawk != null)
+        {
+            double hawkX = x - hawk.x();
+            double hawkY = y - hawk.y();
+            double hawkDistance = Math.sqrt(hawkX*hawkX + hawkY*hawkY);
+            hawkAvoidX = (1.0 / hawkDistance) * hawkX;
+            hawkAvoidY = (1.0 / hawkDistance) * hawkY;
+        }
+
+        // plungeDeeper(neighbors) and returnToWorld()
+        double plungeX = (1.0 / neighborCnt) * centroidX - x;
+        double plungeY = (1.0 / neighborCnt) * centroidY - y;
+        double returnX = 0.5 - x;
+        double returnY = 0.5 - y;
+
+        double desiredX = BOID_AVOIDANCE_WEIGHT * avoidX
+                        + HAWK_AVOIDANCE_WEIGHT * hawkAvoidX
+                        + VELOCITY_MATCH_WEIGHT * matchX
+                        + PLUNGE_DEEPER_WEIGHT * plungeX
+                        + RETURN_TO_ORIGIN_WEIGHT * returnX;
+        double desiredY = BOID_AVOIDANCE_WEIGHT * avoidY
+                        + HAWK_AVOIDANCE_WEIGHT * hawkAvoidY
+                        + VELOCITY_MATCH_WEIGHT * matchY
+                        + PLUNGE_DEEPER_WEIGHT * plungeY
+                        + RETURN_TO_ORIGIN_WEIGHT * returnY;
+        if (farField != null && farField[0] > 0.0)
+        {
+            desiredX += FAR_COHESION_WEIGHT * (farField[1] - x)
+                      + FAR_ALIGNMENT_WEIGHT * (farField[3] - vx);
+            desiredY += FAR_COHESION_WEIGHT * (farField[2] - y)
+                      + FAR_ALIGNMENT_WEIGHT * (farField[4] - vy);
+        }
+        double magnitude = Math.sqrt(desiredX*desiredX + desiredY*desiredY);
+        if (magnitude == 0.0)
+            return;
+        flock.setVelocity(i, vx + THRUST_FACTOR * ((1.0 / magnitude) * desiredX),
+                             vy + THRUST_FACTOR * ((1.0 / magnitude) * desiredY));
     }
 
 
@@ -1,8 +1,79 @@
 /*************************************************************************
  *  Compilation:  javac BoidSimulator.java
- *  Execution:    java BoidSimuator <brute|kdtree> <# of boids> <# of friends>
+ *  Execution:    java BoidSimuator <brute|sweep|kdtree|flat|refit|grid|scan>
+ *                <# of boids> <# of friends> [parallel] [farfield]
+ *                [eps <epsilon>] [hawks <# of hawks>] [stats <csv file>]
+ *                [pixels] [threaded] [lod <boids per pixel>]
+ *                [headless <# of steps> <seed>]
  *
- *  Implementation of a boid simulator using the PointST or KdTreeST data type.
+ *  Implementation of a boid simulator using the PointST, KdTreeST,
+ *  FlatKdTreeST, HashGridST or ScanST data type. With "parallel", every
+ *  boid steps from a frozen copy of the previous frame, so the boid
+ *  updates are split across all cores and do not depend on the order they
+ *  run in. The "refit" mode keeps a single FlatKdTreeST across frames and
+ *  moves each boid's point in place instead of rebuilding the symbol
+ *  table.
+ *
+ *  With "farfield", each boid is also pulled toward the position and
+ *  velocity of the far field of the whole flock, which an aggregated
+ *  KdTreeST approximates Barnes-Hut style in O(log N) per boid, and the
+ *  camera tracks the center of mass from the aggregate of its root.
+ *
+ *  With "eps", the kdtree mode finds (1 + epsilon)-approximate friends:
+ *  each friend is at most 1 + epsilon times farther than the exact one it
+ *  stands in for, and fewer nodes are visited per query. The headless
+ *  report then includes the nodes visited per query, so the trade-off
+ *  can be measured.
+ *
+ *  With "hawks", there are that many hawks instead of one. The hawks are
+ *  put in a KdTreeST of their own every frame, so each boid avoids only
+ *  its nearest hawk and each hawk chases its nearest boid, at a cost of
+ *  O(log H) and O(log N) per query instead of a loop over all of them.
+ *  Both kinds of query run as one parallel batch each, like the friends.
+ *
+ *  With "stats", every phase of every frame (keyboard and camera, drawing,
+ *  building the symbol table, the nearest queries, the boid update, the
+ *  hawk update and StdDraw.show) is timed into a histogram. The frames
+ *  per second and each phase's median and 99th percentile over the last
+ *  second are drawn over the flock, and written once a second to the
+ *  given CSV file. Headless runs write the file too.
+ *
+ *  With "pixels", the boids are drawn by a PixelRenderer, which writes
+ *  them straight into the pixels of an image shown once per frame,
+ *  instead of by StdDraw, one Java2D shape per boid. With "parallel" too,
+ *  the image is rasterized in tiles on all cores.
+ *
+ *  With "threaded", the simulation runs on a thread of its own, one step
+ *  every STEP_MILLIS at most, and after each step publishes a snapshot of
+ *  the positions through a lock-free TripleBuffer. The main thread draws
+ *  the latest snapshot whenever it is ready for a frame, so a slow step
+ *  no longer holds up the keyboard and camera, nor a slow frame the
+ *  simulation, and the two run on different cores.
+ *
+ *  Only the boids in view are drawn. Each step builds its symbol table
+ *  before the frame is drawn, and the camera's rectangle is looked up in
+ *  it with range(), so a snapshot copies, and a frame draws, only the
+ *  boids the camera sees: zoomed in on a large flock, a small fraction
+ *  of them.
+ *
+ *  With "lod", once there are more boids in view than the given number
+ *  per pixel of the window, they are no longer drawn one by one: each
+ *  snapshot bins them into cells of CELL_PIXELS pixels a side, and the
+ *  frame shows how many boids each cell holds, in shades of gray, and
+ *  the direction they head, as a tick. The cost of such a frame depends
+ *  on the size of the window and not on the size of the flock, so the
+ *  frame rate stays the same zoomed out on a million boids. Zoomed in
+ *  far enough, the boids are drawn as points again.
+ *
+ *  With "headless", nothing is drawn: the boids are generated from the
+ *  given seed, the simulation runs for the given number of steps as fast
+ *  as it can, and the steps per second, the time spent per step in each
+ *  phase (index, query, update) and a checksum of the final positions are
+ *  printed. The same seed and steps give the same checksum on any machine,
+ *  for every data type, so runs can be compared across backends and
+ *  hardware.
+ *
+ *  % java BoidSimulator flat 100000 10 parallel headless 100 42
  *
  *  Note: This code is a bit hacked together. Apologies for any messy
  *  code. Interactivity features and other tweaks by Evan Sparano (Fall 2013).
@@ -11,13 +82,14 @@
  *      Press "o" to zoom out.
  *      Press "i" to zoom in.
  *      Press "t" to track the center of mass of all boids.
- *      Press "h" to track the hawk.
+ *      Press "h" to track the (first) hawk.
  *      Press "m" to manually control the camera.
  *      While in "manual" mode, use arrow keys to control camera movement.
  *
  *************************************************************************/
 
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 
 public class BoidSimulator {
     
@@ -29,31 +101,79 @@ public class BoidSimulator {
     // camera movement constants
     private static final double ZOOM_FACTOR = 1.1;
     private static final double CAMERA_SPEED = 0.05;
+    
+    // time between steps in "threaded" mode, and between frames
+    private static final int STEP_MILLIS = 20;
             
     private static char mode = TRACKING_MODE; // start in "tracking" mode
     
-    private static Iterable<Boid> lookUpBoids(ST<Boid> st, Iterable<Point2D> points) {
-        Queue<Boid> values = new Queue<Boid>();
-        for (Point2D p : points) {
-            values.enqueue(st.get(p));
-        }
-        return values;
-    }
+    // In "pixels" mode, the window the boids are drawn in.
+    private static final int CANVAS_SIZE = 512;
+    private static PixelRenderer renderer;
     
-    public static void main(String[] args)
+    // In "lod" mode, the size of a cell of the density map, in pixels.
+    private static final int CELL_PIXELS = 8;
+    
+    // the phases of a frame timed with "stats"
+    private static final int INPUT = 0, DRAW = 1, INDEX = 2, QUERY = 3,
+                             UPDATE = 4, HAWKS = 5, SHOW = 6;
+    private static final String[] PHASES = {
+        "input", "draw", "index", "query", "update", "hawks", "show"
+    };
+    
+    public static void main(String[] args) throws IOException
     {  
-        Hawk hawk = new Hawk(0.5, 0.3);
-        StdDraw.show(20);
         int NUM_BOIDS = Integer.parseInt(args[1]);
         
         // Each boid tracks a number of nearest neighbors equal to FRIENDS
         int FRIENDS = Integer.parseInt(args[2]);
-        Boid[] boids = new Boid[NUM_BOIDS];
-        double meanX, meanY;
+        final Flock flock = new Flock(NUM_BOIDS);
         double radius = 0.5;
         double currentX = 0.5;
         double currentY = 0.5;
         
+        // In "parallel" mode, the boids step from a frozen copy of the
+        // previous frame. In "headless" mode, run a seeded benchmark.
+        boolean parallel = false;
+        boolean farField = false;
+        double eps = 0.0;
+        int NUM_HAWKS = 1;
+        FrameStats stats = null;
+        boolean pixels = false;
+        boolean threaded = false;
+        double lod = Double.POSITIVE_INFINITY;
+        int steps = -1;
+        for (int a = 3; a < args.length; a++) {
+            if (args[a].equals("parallel")) {
+                parallel = true;
+            }
+            else if (args[a].equals("farfield")) {
+                farField = true;
+            }
+            else if (args[a].equals("eps")) {
+                eps = Double.parseDouble(args[++a]);
+            }
+            else if (args[a].equals("hawks")) {
+                NUM_HAWKS = Integer.parseInt(args[++a]);
+            }
+            else if (args[a].equals("stats")) {
+                stats = new FrameStats(args[++a], PHASES);
+            }
+            else if (args[a].equals("pixels")) {
+                pixels = true;
+            }
+            else if (args[a].equals("threaded")) {
+                threaded = true;
+            }
+            else if (args[a].equals("lod")) {
+                lod = Double.parseDouble(args[++a]);
+            }
+            else if (args[a].equals("headless")) {
+                steps = Integer.parseInt(args[++a]);
+                StdRandom.setSeed(Long.parseLong(args[++a]));
+            }
+        }
+        
         // Generate random boids.
         for (int i = 0; i < NUM_BOIDS; i++)
         {
@@ -61,93 +181,572 @@ public class BoidSimulator {
             double startY = StdRandom.uniform();
             double velX = (StdRandom.uniform() - 0.5)/1000;
             double velY = (StdRandom.uniform() - 0.5)/1000;
-            boids[i] = new Boid(startX, startY, velX, velY);
+            flock.set(i, startX, startY, velX, velY);
+        }
+        
+        // The first hawk starts where the only hawk always has; any others
+        // start at random.
+        final Hawk[] hawks = new Hawk[NUM_HAWKS];
+        hawks[0] = new Hawk(0.5, 0.3);
+        for (int h = 1; h < NUM_HAWKS; h++)
+            hawks[h] = new Hawk(StdRandom.uniform(), StdRandom.uniform());
+        
+        final Simulation simulation = new Simulation(args[0], flock, hawks, FRIENDS, parallel, farField, eps);
+        if (steps >= 0) {
+            benchmark(simulation, args[0], steps, stats);
+            return;
+        }
+        
+        if (pixels)
+            renderer = new PixelRenderer(CANVAS_SIZE, CANVAS_SIZE, "BoidSimulator");
+        else
+            StdDraw.show(STEP_MILLIS);
+        
+        // Frames are drawn from snapshots of the simulation, handed over
+        // from the thread that steps it to the one that draws.
+        // Past lod boids per pixel in view, they are drawn as a density map.
+        int cells = CANVAS_SIZE / CELL_PIXELS;
+        final TripleBuffer<Snapshot> snapshots = new TripleBuffer<Snapshot>(
+            new Snapshot(NUM_BOIDS, NUM_HAWKS, cells), new Snapshot(NUM_BOIDS, NUM_HAWKS, cells),
+            new Snapshot(NUM_BOIDS, NUM_HAWKS, cells));
+        simulation.setDensityThreshold(lod * CANVAS_SIZE * CANVAS_SIZE);
+        simulation.capture(snapshots.back());
+        snapshots.publish();
+        
+        if (threaded) {
+            // Step and publish at a fixed rate, or as fast as the steps
+            // allow, on a thread of its own.
+            final FrameStats timing = stats;
+            Thread stepper = new Thread(new Runnable() {
+                public void run() {
+                    while (true) {
+                        long start = System.nanoTime();
+                        simulation.index(timing);
+                        simulation.capture(snapshots.back());
+                        snapshots.publish();
+                        simulation.advance(timing);
+                        long wait = STEP_MILLIS - (System.nanoTime() - start) / 1000000;
+                        try {
+                            if (wait > 0)
+                                Thread.sleep(wait);
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "BoidSimulator simulation");
+            stepper.setDaemon(true);
+            stepper.start();
         }
         
         while(true)
         {
+            long t0 = System.nanoTime();
+            
             // process keyboard input
-            if (StdDraw.isKeyPressed(KeyEvent.VK_I)) // press "i" to zoom in 
+            if (isKeyPressed(KeyEvent.VK_I)) // press "i" to zoom in 
                 radius *= 1/ZOOM_FACTOR;
-            if (StdDraw.isKeyPressed(KeyEvent.VK_O)) // press "o" to zoom out
+            if (isKeyPressed(KeyEvent.VK_O)) // press "o" to zoom out
                 radius *= ZOOM_FACTOR;
-            if (StdDraw.isKeyPressed(KeyEvent.VK_M)) // press "m" to enter 
+            if (isKeyPressed(KeyEvent.VK_M)) // press "m" to enter 
                 mode = MANUAL_MODE;                  // "manual" mode
-            if (StdDraw.isKeyPressed(KeyEvent.VK_H)) // press "h" to enter 
+            if (isKeyPressed(KeyEvent.VK_H)) // press "h" to enter 
                 mode = HAWK_MODE;                    // "hawk" mode
-            if (StdDraw.isKeyPressed(KeyEvent.VK_T)) // press "t" to enter 
+            if (isKeyPressed(KeyEvent.VK_T)) // press "t" to enter 
                 mode = TRACKING_MODE;                // "tracking" mode
             
             // scale pen radius relative to zoom 
-            StdDraw.setPenRadius(0.01*(0.5/radius));
-            StdDraw.setXscale(currentX - radius, currentX + radius);
-            StdDraw.setYscale(currentY - radius, currentY + radius);
+            double penRadius = 0.01*(0.5/radius);
+            if (renderer != null) {
+                renderer.setScale(currentX - radius, currentX + radius,
+                                  currentY - radius, currentY + radius);
+            }
+            else {
+                StdDraw.setPenRadius(penRadius);
+                StdDraw.setXscale(currentX - radius, currentX + radius);
+                StdDraw.setYscale(currentY - radius, currentY + radius);
+            }
+            
+            // Only the boids in view, or half a point outside it, are
+            // captured and drawn.
+            double margin = radius + penRadius*radius;
+            simulation.setView(new RectHV(currentX - margin, currentY - margin,
+                                          currentX + margin, currentY + margin));
+            long t1 = System.nanoTime();
             
-            // draw all boids and calculate their meanX and meanY
-            meanX = 0;
-            meanY = 0;
-            for (int i = 0; i < NUM_BOIDS; i++) {
-                meanX += boids[i].x()/NUM_BOIDS;
-                meanY += boids[i].y()/NUM_BOIDS;
-                boids[i].draw();
+            // Unless the simulation has a thread of its own, index the
+            // boids here, before drawing, so the symbol table finds the
+            // ones in view.
+            if (!threaded)
+                simulation.index(stats);
+            long t2 = System.nanoTime();
+            if (!threaded) {
+                simulation.capture(snapshots.back());
+                snapshots.publish();
             }
             
-            // draw the hawk
-            hawk.draw();
+            // pick up the latest snapshot of the simulation
+            snapshots.update();
+            Snapshot frame = snapshots.front();
+            
+            if (renderer != null) {
+                // draw the boids and the hawks as squares about as wide
+                // as StdDraw's points
+                int size = (int) Math.max(1, Math.round(penRadius*CANVAS_SIZE));
+                renderer.clear(0xFFFFFF);
+                frame.draw(renderer, size, parallel);
+                if (stats != null)
+                    stats.draw(renderer, currentX - 0.95*radius, currentY + 0.95*radius, 0.05*radius);
+            }
+            else {
+                // draw the boids in view and the hawks
+                frame.draw();
+                
+                // draw the timings of the last second in the top left corner
+                if (stats != null)
+                    stats.draw(currentX - 0.95*radius, currentY + 0.95*radius, 0.05*radius);
+            }
+            long t3 = System.nanoTime();
             
             // follow center of mass in tracking mode
             if (mode == TRACKING_MODE) { 
-                currentX = meanX;
-                currentY = meanY;
+                currentX = frame.meanX();
+                currentY = frame.meanY();
             } 
             // allow user to control movement in manual mode
             else if (mode == MANUAL_MODE) {
                 // press "up arrow" to pan upwards
-                if (StdDraw.isKeyPressed(KeyEvent.VK_UP)) 
+                if (isKeyPressed(KeyEvent.VK_UP)) 
                     currentY += radius*CAMERA_SPEED;
                 // press "down arrow" to pan downwards
-                if (StdDraw.isKeyPressed(KeyEvent.VK_DOWN))
+                if (isKeyPressed(KeyEvent.VK_DOWN))
                     currentY -= radius*CAMERA_SPEED;
                 // press "left arrow" to pan to the left
-                if (StdDraw.isKeyPressed(KeyEvent.VK_LEFT))
+                if (isKeyPressed(KeyEvent.VK_LEFT))
                     currentX -= radius*CAMERA_SPEED;
                 // press "right arrow" to pan to the right
-                if (StdDraw.isKeyPressed(KeyEvent.VK_RIGHT))
+                if (isKeyPressed(KeyEvent.VK_RIGHT))
                     currentX += radius*CAMERA_SPEED;
             } 
             // follow hawk in hawk mode
             else if (mode == HAWK_MODE) {
-                currentX = hawk.x();
-                currentY = hawk.y();
+                currentX = frame.hawkX(0);
+                currentY = frame.hawkY(0);
             }
             
-            // The entire symbol table must be rebuilt every frame. Since the 
-            // boids are random, we expect a roughly balanced tree, despite the
-            // lack of balancing in KdTreeST.
-            ST<Boid> st = null;
-            if (args[0].equals("brute")) {
-                st = new PointST<Boid>();
+            long t4 = System.nanoTime();
+            
+            // finish the step unless the simulation has a thread of its own
+            if (!threaded)
+                simulation.advance(stats);
+            
+            long t5 = System.nanoTime();
+            if (renderer != null) {
+                renderer.show(STEP_MILLIS);
             }
-            else if (args[0].equals("kdtree")) {
-                st = new KdTreeST<Boid>();
+            else {
+                StdDraw.show(STEP_MILLIS);
+                StdDraw.clear();
             }
-            for (int i = 0; i < NUM_BOIDS; i++)   
-            {
-                st.put(boids[i].position(), boids[i]);
+            
+            if (stats != null) {
+                stats.record(INPUT, (t1 - t0) + (t4 - t3));
+                stats.record(DRAW, t3 - t2);
+                stats.record(SHOW, System.nanoTime() - t5);
+                stats.endFrame();
+            }
+        }
+    }
+    
+    // Is the key with the given code held down in the window drawn in?
+    private static boolean isKeyPressed(int keycode)
+    {
+        if (renderer != null)
+            return renderer.isKeyPressed(keycode);
+        return StdDraw.isKeyPressed(keycode);
+    }
+    
+    // Run the given number of steps without drawing and print the
+    // throughput, the time per step of each phase and a checksum.
+    private static void benchmark(Simulation simulation, String backend, int steps,
+                                  FrameStats stats)
+    {
+        long start = System.nanoTime();
+        for (int t = 0; t < steps; t++) {
+            simulation.step(stats);
+            if (stats != null)
+                stats.endFrame();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (stats != null)
+            stats.close();
+        
+        int n = Math.max(steps, 1);
+        StdOut.printf("%s: %d steps in %.3f s, %.1f steps/sec%n",
+                      backend, steps, seconds, steps / seconds);
+        StdOut.printf("  index  %10.3f ms/step%n", simulation.indexTime / 1e6 / n);
+        StdOut.printf("  query  %10.3f ms/step%n", simulation.queryTime / 1e6 / n);
+        StdOut.printf("  update %10.3f ms/step%n", simulation.updateTime / 1e6 / n);
+        StdOut.printf("  hawks  %10.3f ms/step%n", simulation.hawkTime / 1e6 / n);
+        if (backend.equals("kdtree"))
+            StdOut.printf("  nodes  %10.1f visited/query%n", simulation.visited / (double) simulation.queries);
+        StdOut.printf("  checksum %016x%n", simulation.checksum());
+    }
+    
+    // The state of the flock, the hawks and the symbol table from one frame
+    // to the next, and the time spent in each phase of a step so far.
+    private static class Simulation
+    {
+        private final String backend;  // brute, sweep, kdtree, flat, refit, grid or scan
+        // opening angle of the far-field approximation
+        private static final double THETA = 1.0;
+        
+        private final Flock flock;
+        private final Hawk[] hawks;
+        private final int FRIENDS;
+        private final boolean parallel;
+        private final boolean farField;
+        private final double eps;
+        
+        // In "refit" mode, the index persists across frames.
+        private FlatKdTreeST<Boid> index;
+        
+        // In "parallel" mode, the previous frame is frozen into a second
+        // flock that the update reads from.
+        private final Flock previous;
+        
+        // The boids of the last frame in a KdTreeST, in "farfield" and
+        // "kdtree" modes, which keeps subtree aggregates in "farfield"
+        // mode, and the far field at each boid in "farfield" mode.
+        private KdTreeST<Boid> field;
+        private final double[][] far;
+        
+        // The symbol tables of the boids and of the hawks built by the last
+        // index(), and the rectangle in view when drawing, which the boids
+        // captured are found in.
+        private ST<Boid> st;
+        private KdTreeST<Hawk> hawkST;
+        private volatile RectHV view;
+        
+        // The number of boids in view above which they are captured as a
+        // density map, and the number in view at the last capture.
+        private double densityThreshold = Double.POSITIVE_INFINITY;
+        private int inView;
+        
+        // the indices of the boids in view, found for a density map
+        private final int[] visibleBoids;
+        
+        // the positions of the hawks, the boid each hawk chases and the hawk
+        // each boid avoids; null if there is none
+        private final double[] hawkX, hawkY;
+        private final Boid[] prey;
+        private final Hawk[] threat;
+        
+        // nanoseconds spent putting the boids and hawks in symbol tables,
+        // finding the boids' friends and threats and the hawks' prey, and
+        // moving the boids and the hawks
+        private long indexTime, queryTime, updateTime, hawkTime;
+        
+        // nearest queries made, and the KdTreeST nodes they visited
+        private long queries, visited;
+        
+        // steps taken so far
+        private long steps;
+        
+        public Simulation(String backend, Flock flock, Hawk[] hawks, int FRIENDS,
+                          boolean parallel, boolean farField, double eps)
+        {
+            this.backend = backend;
+            this.flock = flock;
+            this.hawks = hawks;
+            this.FRIENDS = FRIENDS;
+            this.parallel = parallel;
+            this.farField = farField;
+            this.eps = eps;
+            this.previous = new Flock(parallel ? flock.size() : 0);
+            this.far = new double[farField ? flock.size() : 0][5];
+            this.hawkX = new double[hawks.length];
+            this.hawkY = new double[hawks.length];
+            this.prey = new Boid[hawks.length];
+            this.threat = new Hawk[flock.size()];
+            this.visibleBoids = new int[flock.size()];
+        }
+        
+        // Return the mean x- and y-coordinate of the boids: the root
+        // aggregate of the last frame's tree in "farfield" mode, or else the
+        // mean of the current positions.
+        public double meanX()
+        {
+            if (farField && field != null)
+                return field.meanX();
+            double meanX = 0;
+            for (int i = 0; i < flock.size(); i++)
+                meanX += flock.x(i)/flock.size();
+            return meanX;
+        }
+        
+        public double meanY()
+        {
+            if (farField && field != null)
+                return field.meanY();
+            double meanY = 0;
+            for (int i = 0; i < flock.size(); i++)
+                meanY += flock.y(i)/flock.size();
+            return meanY;
+        }
+        
+        // Advance the flock and the hawks by one frame, and record the time
+        // each phase took in stats unless it is null.
+        public void step(FrameStats stats)
+        {
+            index(stats);
+            advance(stats);
+        }
+        
+        // Put the boids and the hawks in symbol tables, the first half of a
+        // step; until advance(), the tables hold exactly the positions a
+        // capture() copies.
+        public void index(FrameStats stats)
+        {
+            long t0 = System.nanoTime();
+            st = build();
+            if (farField && field == null)
+                field = aggregate();
+            hawkST = new KdTreeST<Hawk>();
+            for (int h = 0; h < hawks.length; h++) {
+                hawkST.put(hawks[h].position(), hawks[h]);
+                hawkX[h] = hawks[h].x();
+                hawkY[h] = hawks[h].y();
+            }
+            long t1 = System.nanoTime();
+            
+            indexTime += t1 - t0;
+            if (stats != null)
+                stats.record(INDEX, t1 - t0);
+        }
+        
+        // Find the friends, threats and prey in the symbol tables of the
+        // last index(), then move the boids and the hawks.
+        public void advance(FrameStats stats)
+        {
+            long t1 = System.nanoTime();
+            
+            // Find every boid's friends in one batch before anyone moves.
+            // Boids were put in order, so point i of the graph is boid i.
+            // Data types that build lazily do so here, on the first query.
+            final NeighborGraph<Boid> friends = st.allNearest(FRIENDS);
+            // Each hawk will chase the boid nearest to it, and each boid
+            // avoid the hawk nearest to it, found in one batch each. A point
+            // exactly on top of the only candidate finds none, and then
+            // chases or avoids nothing.
+            NeighborGraph<Boid> nearestBoid = st.allNearest(hawkX, hawkY, 1);
+            for (int h = 0; h < prey.length; h++) {
+                if (nearestBoid.degree(h) == 0)
+                    prey[h] = null;
+                else
+                    prey[h] = nearestBoid.value(nearestBoid.neighbor(h, 0));
+            }
+            NeighborGraph<Hawk> nearestHawk = hawkST.allNearest(flock.xs(), flock.ys(), 1);
+            for (int i = 0; i < threat.length; i++) {
+                if (nearestHawk.degree(i) == 0)
+                    threat[i] = null;
+                else
+                    threat[i] = nearestHawk.value(nearestHawk.neighbor(i, 0));
+            }
+            queries += friends.size() + hawks.length;
+            if (backend.equals("kdtree"))
+                visited += field.nodesVisited();
+            if (farField) {
+                // Every boid's far field, each written to its own row.
+                ParallelFor.Body body = new ParallelFor.Body() {
+                    public void run(int lo, int hi) {
+                        for (int i = lo; i < hi; i++)
+                            field.farField(flock.x(i), flock.y(i), THETA, far[i]);
+                    }
+                };
+                if (parallel)
+                    ParallelFor.run(far.length, body);
+                else
+                    body.run(0, far.length);
+            }
+            long t2 = System.nanoTime();
+            
+            if (parallel) {
+                // Freeze the current frame, then update every boid from the
+                // frozen friends, in parallel.
+                previous.copy(flock);
+                ParallelFor.run(friends.size(), new ParallelFor.Body() {
+                    public void run(int lo, int hi) {
+                        for (int i = lo; i < hi; i++) {
+                            Iterable<Boid> kNearest = friends.neighbors(i, previous.boids());
+                            flock.boid(i).updatePositionAndVelocity(kNearest, threat[i], farField(i));
+                        }
+                    }
+                });
+            }
+            else {
+                for (int i = 0; i < friends.size(); i++)
+                {
+                    Iterable<Boid> kNearest = friends.neighbors(i);
+                    friends.value(i).updatePositionAndVelocity(kNearest, threat[i], farField(i));
+                }
+            }
+            long t3 = System.nanoTime();
+            for (int h = 0; h < hawks.length; h++)
+                hawks[h].updatePositionAndVelocity(prey[h]);
+            long t4 = System.nanoTime();
+            
+            queryTime += t2 - t1;
+            updateTime += t3 - t2;
+            hawkTime += t4 - t3;
+            steps++;
+            if (stats != null) {
+                stats.record(QUERY, t2 - t1);
+                stats.record(UPDATE, t3 - t2);
+                stats.record(HAWKS, t4 - t3);
+            }
+        }
+        
+        // Copy the positions of the boids and hawks and the center of mass
+        // into snapshot; right after index(), only the boids in view. If
+        // there were too many in view last time, bin them into a density
+        // map instead; either way, the snapshot counts them for next time.
+        public void capture(Snapshot snapshot)
+        {
+            RectHV view = this.view;
+            if (st != null && view != null && inView > densityThreshold) {
+                // Bin only the boids in view, unless all of them were last
+                // time, when walking the flock in order is faster. Boids
+                // were put in order, so point i of st is boid i.
+                int[] visible = null;
+                int n = 0;
+                if (inView < flock.size()) {
+                    visible = visibleBoids;
+                    n = st.rangeIndices(view, visible);
+                }
+                snapshot.captureDensity(flock, visible, n, view, hawks, meanX(), meanY(), steps);
             }
-            for (int i = 0; i < NUM_BOIDS; i++)
+            else {
+                Iterable<Point2D> visible = null;
+                if (st != null && view != null)
+                    visible = st.range(view);
+                snapshot.capture(flock, visible, hawks, meanX(), meanY(), steps);
+            }
+            inView = snapshot.size();
+        }
+        
+        // Capture the boids as a density map once more than the given
+        // number are in view.
+        public void setDensityThreshold(double boids)
+        {
+            densityThreshold = boids;
+        }
+        
+        // Only capture the boids in the given rectangle from now on, or all
+        // of them if it is null. May be called from any thread.
+        public void setView(RectHV view)
+        {
+            this.view = view;
+        }
+        
+        // Return the far field at boid i, or null if not in "farfield" mode.
+        private double[] farField(int i)
+        {
+            return farField ? far[i] : null;
+        }
+        
+        // Return a symbol table of the boids' current positions that keeps
+        // the subtree aggregates.
+        private KdTreeST<Boid> aggregate()
+        {
+            KdTreeST<Boid> st = new KdTreeST<Boid>(true);
+            for (int i = 0; i < flock.size(); i++)
             {
-                Iterable<Point2D> kNearestPoints = st.nearest(boids[i].position(), FRIENDS);
-                Iterable<Boid> kNearest = lookUpBoids(st, kNearestPoints);
-                boids[i].updatePositionAndVelocity(kNearest, hawk);
+                Boid b = flock.boid(i);
+                st.put(b.position(), b, flock.vx(i), flock.vy(i));
             }
+            return st;
+        }
+        
+        // Return a symbol table of the boids' current positions.
+        private ST<Boid> build()
+        {
+            int N = flock.size();
+            field = null;
             
-            // The hawk will chase the nearest boid.
-            Boid closestBoid = st.get(st.nearest(hawk.position()));
-            hawk.updatePositionAndVelocity(closestBoid);
+            // Except in "refit" mode, the entire symbol table must be rebuilt
+            // every frame. Since the boids are random, we expect a roughly 
+            // balanced tree, despite the lack of balancing in KdTreeST.
+            if (backend.equals("refit")) {
+                if (index != null) {
+                    // Boids only drift a little per frame, so move their
+                    // points and let the tree refit on the next query.
+                    // Boid i was put i-th. Two boids that land on the same
+                    // point cannot both be moved; rebuild the table then,
+                    // the way the other modes do every frame.
+                    try {
+                        index.moveAll(flock.xs(), flock.ys());
+                        return index;
+                    }
+                    catch (IllegalArgumentException e) {
+                        index = null;
+                    }
+                }
+                index = new FlatKdTreeST<Boid>();
+                for (int i = 0; i < N; i++)
+                    index.put(flock.boid(i).position(), flock.boid(i));
+                return index;
+            }
             
-            StdDraw.show(20);
-            StdDraw.clear();
+            ST<Boid> st = null;
+            if (backend.equals("brute")) {
+                st = new PointST<Boid>();
+            }
+            else if (backend.equals("sweep")) {
+                st = new PointST<Boid>(true);
+            }
+            else if (backend.equals("kdtree")) {
+                // Only the far field needs the subtree aggregates.
+                if (farField)
+                    field = aggregate();
+                else {
+                    field = new KdTreeST<Boid>();
+                    for (int i = 0; i < N; i++)
+                        field.put(flock.boid(i).position(), flock.boid(i));
+                }
+                field.setEpsilon(eps);
+                return field;
+            }
+            else if (backend.equals("flat")) {
+                st = new FlatKdTreeST<Boid>();
+            }
+            else if (backend.equals("grid")) {
+                st = new HashGridST<Boid>();
+            }
+            else if (backend.equals("scan")) {
+                st = new ScanST<Boid>();
+            }
+            for (int i = 0; i < N; i++)   
+            {
+                st.put(flock.boid(i).position(), flock.boid(i));
+            }
+            return st;
+        }
+        
+        // Return a hash of the exact positions of every boid and hawk.
+        public long checksum()
+        {
+            long h = 17;
+            for (int i = 0; i < flock.size(); i++) {
+                h = 31*h + Double.doubleToLongBits(flock.x(i));
+                h = 31*h + Double.doubleToLongBits(flock.y(i));
+            }
+            for (Hawk hawk : hawks) {
+                h = 31*h + Double.doubleToLongBits(hawk.x());
+                h = 31*h + Double.doubleToLongBits(hawk.y());
+            }
+            return h;
         }
     }
 }
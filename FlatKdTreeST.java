@@ -0,0 +1,647 @@
+/*************************************************************************
+ *  Compilation:  javac FlatKdTreeST.java
+ *  Execution:    java FlatKdTreeST < input.txt
+ *  Dependencies: ST.java Point2D.java RectHV.java Queue.java NeighborPQ.java
+ *                PointHash.java StdIn.java StdOut.java
+ *
+ *  A 2d-tree symbol table stored in flat primitive arrays.
+ *
+ *  Points and values are kept in insertion order in parallel arrays and
+ *  an open-addressing hash table maps coordinates to their index, so put,
+ *  get and contains never touch the tree. The tree itself is built lazily
+ *  by the first geometric query after a change: the points are copied
+ *  into leaf order and recursively split at the median of the wider
+ *  dimension until at most BUCKET_SIZE points remain, and those buckets
+ *  are scanned linearly. Nodes are implicit (node n has children 2n and
+ *  2n + 1 and its slice of the leaf-order arrays is passed down during the
+ *  descent), so the only per-node state is the split dimension and the
+ *  bounding box used for pruning.
+ *
+ *  Points can also be moved in place with move(), or all at once with
+ *  moveAll(), which lets points trade places. The next query then
+ *  refits the existing tree instead of rebuilding it: the bounding boxes
+ *  are recomputed bottom up, which is all the queries need to stay exact,
+ *  and each node's split is checked in constant time from the boxes of its
+ *  children. Points that cross a split only make the children's boxes
+ *  overlap; a subtree is rebuilt once they overlap by more than a small
+ *  fraction of its box, so a set of points that drifts a little between
+ *  frames is re-indexed in about linear time instead of N log N.
+ *
+ *************************************************************************/
+
+public class FlatKdTreeST<Value> implements ST<Value> {
+    private static final int BUCKET_SIZE = 8;    // max points in a leaf
+    private static final int INIT_CAPACITY = 16; // initial array capacity
+    private static final double SLACK = 0.05;    // overlap allowed by refit
+
+    private double[] xs, ys; // point coordinates, in insertion order
+    private Value[] vals;    // associated values, in insertion order
+    private int N;           // number of points in the symbol table
+    private PointHash table; // hash of point to index
+    private PointHash spare; // hash of the new points in moveAll()
+
+    private boolean built;   // is the tree consistent with the points?
+    private boolean moved;   // have points moved since the tree was built?
+    private int[] perm;      // perm[j] = insertion index of j-th leaf point
+    private double[] px, py; // point coordinates, in leaf order
+    private boolean[] byX;   // does the node split on the x-coordinate?
+    private double[] minX, minY, maxX, maxY; // bounding box of each node
+
+    private NeighborPQ pq;   // leaf positions of the k-NN candidates
+
+    // Construct an empty symbol table of points.
+    public FlatKdTreeST() {
+        xs = new double[INIT_CAPACITY];
+        ys = new double[INIT_CAPACITY];
+        vals = (Value[]) new Object[INIT_CAPACITY];
+        table = new PointHash(INIT_CAPACITY);
+        pq = new NeighborPQ(1);
+        N = 0;
+        built = false;
+        moved = false;
+    }
+
+    // Return true if the symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+    // Return the number points in the symbol table.
+    public int size() {
+        return N;
+    }
+
+    // Associate the value val with point p.
+    public void put(Point2D p, Value val) {
+        // Replace the value if the point is already present.
+        int i = indexOf(p.x(), p.y());
+        if (i >= 0) {
+            vals[i] = val;
+            return;
+        }
+        // Grow the arrays and the hash table if they are full.
+        if (N == xs.length) {
+            resize(2 * xs.length);
+        }
+        xs[N] = p.x();
+        ys[N] = p.y();
+        vals[N] = val;
+        table.insert(xs, ys, N);
+        N++;
+        // The tree no longer covers every point.
+        built = false;
+    }
+
+    // Move point from to point to, keeping its value. Throws an exception
+    // if to is already in the symbol table.
+    public void move(Point2D from, Point2D to) {
+        int i = indexOf(from.x(), from.y());
+        if (i < 0) {
+            throw new IllegalArgumentException("Point not in symbol table");
+        }
+        move(i, to.x(), to.y());
+    }
+
+    // Move the i-th point put in the symbol table to (x, y), keeping its
+    // value. Throws an exception if (x, y) is already in the symbol table.
+    public void move(int i, double x, double y) {
+        if (i < 0 || i >= N) {
+            throw new IndexOutOfBoundsException("No point number " + i);
+        }
+        if (xs[i] == x && ys[i] == y) {
+            return;
+        }
+        if (indexOf(x, y) >= 0) {
+            throw new IllegalArgumentException("Point already in symbol table");
+        }
+        // Rehash the point under its new coordinates, and the whole table
+        // once deleted entries fill a quarter of it.
+        table.delete(xs, ys, i);
+        xs[i] = x;
+        ys[i] = y;
+        table.insert(xs, ys, i);
+        if (table.isCrowded()) {
+            table.rehash(xs, ys, N, xs.length);
+        }
+        // Refit the tree on the next query.
+        moved = true;
+    }
+
+    // Move every point at once, the i-th point put to (x[i], y[i]), keeping
+    // the values; x and y hold one coordinate per point. Points may trade
+    // places, since only the new points are checked against each other.
+    // Throws an exception and moves nothing if two of them are equal.
+    public void moveAll(double[] x, double[] y) {
+        if (x.length != N || y.length != N) {
+            throw new IllegalArgumentException("Need " + N + " points");
+        }
+        // Hash the new points into the spare table, which then becomes the
+        // table.
+        if (spare == null) {
+            spare = new PointHash(xs.length);
+        } else {
+            spare.rehash(x, y, 0, xs.length);
+        }
+        for (int i = 0; i < N; i++) {
+            if (spare.indexOf(x, y, x[i], y[i]) >= 0) {
+                throw new IllegalArgumentException("Point " + i
+                    + " equals point " + spare.indexOf(x, y, x[i], y[i]));
+            }
+            spare.insert(x, y, i);
+        }
+        PointHash t = table;
+        table = spare;
+        spare = t;
+        System.arraycopy(x, 0, xs, 0, N);
+        System.arraycopy(y, 0, ys, 0, N);
+        // Refit the tree on the next query.
+        moved = true;
+    }
+
+    // Return the value associated with point p.
+    public Value get(Point2D p) {
+        int i = indexOf(p.x(), p.y());
+        if (i < 0) {
+            return null;
+        }
+        return vals[i];
+    }
+
+    // Return true if the symbol table contains the point p, and false
+    // otherwise.
+    public boolean contains(Point2D p) {
+        return indexOf(p.x(), p.y()) >= 0;
+    }
+
+    // Return all points in the symbol table, in insertion order.
+    public Iterable<Point2D> points() {
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < N; i++) {
+            q.enqueue(new Point2D(xs[i], ys[i]));
+        }
+        return q;
+    }
+
+    // Return all points in the symbol table that are inside the rectangle
+    // rect.
+    public Iterable<Point2D> range(RectHV rect) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        if (N == 0) {
+            return q;
+        }
+        build();
+        int[] found = new int[N];
+        int n = range(1, 0, N, rect, found, 0);
+        for (int i = 0; i < n; i++) {
+            q.enqueue(new Point2D(px[found[i]], py[found[i]]));
+        }
+        return q;
+    }
+
+    // Write the numbers of the points inside the rectangle rect into out,
+    // which must have room for size() of them; return the number written.
+    public int rangeIndices(RectHV rect, int[] out) {
+        if (N == 0) {
+            return 0;
+        }
+        build();
+        int n = range(1, 0, N, rect, out, 0);
+        for (int i = 0; i < n; i++) {
+            out[i] = perm[out[i]];
+        }
+        return n;
+    }
+
+    // Helper for range(RectHV rect) and rangeIndices(RectHV rect, int[] out).
+    // Write the leaf positions of the points of node inside rect into out
+    // from position n on, and return the position after the last.
+    private int range(int node, int lo, int hi, RectHV rect, int[] out, int n) {
+        // Skip subtrees whose bounding box misses the rectangle.
+        if (maxX[node] < rect.xmin() || minX[node] > rect.xmax()
+            || maxY[node] < rect.ymin() || minY[node] > rect.ymax()) {
+            return n;
+        }
+        // Scan leaves and subtrees that lie entirely inside the rectangle.
+        boolean inside = minX[node] >= rect.xmin() && maxX[node] <= rect.xmax()
+            && minY[node] >= rect.ymin() && maxY[node] <= rect.ymax();
+        if (inside || hi - lo <= BUCKET_SIZE) {
+            for (int j = lo; j < hi; j++) {
+                if (inside || (px[j] >= rect.xmin() && px[j] <= rect.xmax()
+                               && py[j] >= rect.ymin() && py[j] <= rect.ymax())) {
+                    out[n++] = j;
+                }
+            }
+            return n;
+        }
+        int mid = (lo + hi) >>> 1;
+        n = range(2 * node, lo, mid, rect, out, n);
+        return range(2 * node + 1, mid, hi, rect, out, n);
+    }
+
+    // Return a nearest neighbor to point p; null if the symbol table is empty.
+    public Point2D nearest(Point2D p) {
+        // Account for the query point returning itself.
+        if (search(p.x(), p.y(), 1) == 0) {
+            return null;
+        }
+        int j = pq.maxItem();
+        return new Point2D(px[j], py[j]);
+    }
+
+    // Return k points that are closest to point p.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        return nearest(p, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Return the (at most) k points other than p closest to p that are
+    // within distance maxRadius of it, closest first.
+    public Iterable<Point2D> nearest(Point2D p, int k, double maxRadius) {
+        int n = search(p.x(), p.y(), k, maxRadius * maxRadius);
+        // Drain the max-heap so that the points come out closest first.
+        Point2D[] a = new Point2D[n];
+        for (int i = n - 1; i >= 0; i--) {
+            int j = pq.maxItem();
+            a[i] = new Point2D(px[j], py[j]);
+            pq.delMax();
+        }
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < n; i++) {
+            q.enqueue(a[i]);
+        }
+        return q;
+    }
+
+    // Return all points other than p within distance r of p.
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        if (N == 0) {
+            return q;
+        }
+        build();
+        withinRadius(1, 0, N, p.x(), p.y(), r * r, q);
+        return q;
+    }
+
+    // Helper for public withinRadius(Point2D p, double r).
+    private void withinRadius(int node, int lo, int hi, double x, double y,
+                              double r2, Queue<Point2D> q) {
+        // Skip subtrees whose bounding box is outside the circle.
+        if (boxDistanceSquared(node, x, y) > r2) {
+            return;
+        }
+        // Scan a leaf bucket linearly, skipping the query point.
+        if (hi - lo <= BUCKET_SIZE) {
+            for (int j = lo; j < hi; j++) {
+                double dx = px[j] - x;
+                double dy = py[j] - y;
+                if ((dx != 0.0 || dy != 0.0) && dx*dx + dy*dy <= r2) {
+                    q.enqueue(new Point2D(px[j], py[j]));
+                }
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        withinRadius(2 * node, lo, mid, x, y, r2, q);
+        withinRadius(2 * node + 1, mid, hi, x, y, r2, q);
+    }
+
+    // Write the values of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearest(double x, double y, int k, Value[] out) {
+        int n = search(x, y, k);
+        for (int i = n - 1; i >= 0; i--) {
+            out[i] = vals[perm[pq.maxItem()]];
+            pq.delMax();
+        }
+        return n;
+    }
+
+    // Write the numbers of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearestIndices(double x, double y, int k, int[] out) {
+        int n = search(x, y, k);
+        for (int i = n - 1; i >= 0; i--) {
+            out[i] = perm[pq.maxItem()];
+            pq.delMax();
+        }
+        return n;
+    }
+
+    // Return the graph joining each point to the (at most) k other points
+    // closest to it. Rows are computed in parallel, in leaf order, so that
+    // consecutive queries touch the same buckets.
+    public NeighborGraph<Value> allNearest(int k) {
+        if (N > 0) {
+            build();
+        }
+        return allNearest(xs, ys, N, Math.min(k, N - 1), perm);
+    }
+
+    // Return the graph joining each query point (qx[i], qy[i]) to the (at
+    // most) k points other than itself closest to it. Rows are computed in
+    // parallel.
+    public NeighborGraph<Value> allNearest(double[] qx, double[] qy, int k) {
+        if (N > 0) {
+            build();
+        }
+        return allNearest(qx, qy, qx.length, Math.min(k, N), null);
+    }
+
+    // Return the graph joining each of the first n query points to the (at
+    // most) degree points other than itself closest to it, searched in the
+    // given order, and translate leaf positions to indices.
+    private NeighborGraph<Value> allNearest(final double[] qx,
+                                            final double[] qy, int n,
+                                            int degree, int[] order) {
+        return NeighborGraph.build(n, degree, order, vals.clone(),
+            new NeighborGraph.RowSearch() {
+                public int search(int i, NeighborPQ pq, int[] adjacent, int lo) {
+                    FlatKdTreeST.this.search(1, 0, N, qx[i], qy[i], pq);
+                    int d = pq.drain(adjacent, lo);
+                    for (int e = lo; e < lo + d; e++) {
+                        adjacent[e] = perm[adjacent[e]];
+                    }
+                    return d;
+                }
+            });
+    }
+
+    // Collect into pq the (at most) k points closest to (x, y), skipping
+    // points equal to (x, y); return the number collected.
+    private int search(double x, double y, int k) {
+        return search(x, y, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Collect into pq the (at most) k points within squared distance
+    // maxKey closest to (x, y), skipping points equal to (x, y); return the
+    // number collected.
+    private int search(double x, double y, int k, double maxKey) {
+        pq.reset(k, maxKey);
+        if (N == 0 || k <= 0) {
+            return 0;
+        }
+        build();
+        search(1, 0, N, x, y, pq);
+        return pq.size();
+    }
+
+    // Helper for search(double x, double y, int k, double maxKey).
+    private void search(int node, int lo, int hi, double x, double y,
+                        NeighborPQ pq) {
+        // Scan a leaf bucket linearly.
+        if (hi - lo <= BUCKET_SIZE) {
+            for (int j = lo; j < hi; j++) {
+                double dx = px[j] - x;
+                double dy = py[j] - y;
+                if (dx == 0.0 && dy == 0.0) {
+                    continue;
+                }
+                pq.offer(dx*dx + dy*dy, j);
+            }
+            return;
+        }
+        // Visit the child whose box is closer first; prune the other one by
+        // the distance to its bounding box.
+        int mid = (lo + hi) >>> 1;
+        int lb = 2 * node;
+        int rt = 2 * node + 1;
+        double dlb = boxDistanceSquared(lb, x, y);
+        double drt = boxDistanceSquared(rt, x, y);
+        if (dlb <= drt) {
+            if (dlb < pq.bound()) search(lb, lo, mid, x, y, pq);
+            if (drt < pq.bound()) search(rt, mid, hi, x, y, pq);
+        } else {
+            if (drt < pq.bound()) search(rt, mid, hi, x, y, pq);
+            if (dlb < pq.bound()) search(lb, lo, mid, x, y, pq);
+        }
+    }
+
+    // Squared distance from (x, y) to the bounding box of node.
+    private double boxDistanceSquared(int node, double x, double y) {
+        double dx = 0.0, dy = 0.0;
+        if      (x < minX[node]) dx = minX[node] - x;
+        else if (x > maxX[node]) dx = x - maxX[node];
+        if      (y < minY[node]) dy = minY[node] - y;
+        else if (y > maxY[node]) dy = y - maxY[node];
+        return dx*dx + dy*dy;
+    }
+
+   /*************************************************************************
+    *  Tree construction.
+    *************************************************************************/
+
+    // Rebuild the tree over all points if it is out of date, or refit it if
+    // points have only moved.
+    private void build() {
+        if (built) {
+            if (moved) {
+                refit();
+            }
+            return;
+        }
+        // Copy the points into leaf order.
+        if (perm == null || perm.length < N) {
+            perm = new int[xs.length];
+            px = new double[xs.length];
+            py = new double[xs.length];
+        }
+        for (int i = 0; i < N; i++) {
+            perm[i] = i;
+            px[i] = xs[i];
+            py[i] = ys[i];
+        }
+        // Count the levels needed to bring every slice down to a bucket.
+        int levels = 1;
+        for (int n = N; n > BUCKET_SIZE; n = (n + 1) / 2) {
+            levels++;
+        }
+        int nodes = 1 << levels;
+        if (byX == null || byX.length < nodes) {
+            byX = new boolean[nodes];
+            minX = new double[nodes];
+            minY = new double[nodes];
+            maxX = new double[nodes];
+            maxY = new double[nodes];
+        }
+        build(1, 0, N);
+        built = true;
+        moved = false;
+    }
+
+    // Build the subtree rooted at node over leaf positions [lo, hi).
+    private void build(int node, int lo, int hi) {
+        bound(node, lo, hi);
+        if (hi - lo <= BUCKET_SIZE) {
+            return;
+        }
+        // Split at the median of the wider dimension.
+        int mid = (lo + hi) >>> 1;
+        byX[node] = (maxX[node] - minX[node]) >= (maxY[node] - minY[node]);
+        select(lo, hi - 1, mid, byX[node]);
+        build(2 * node, lo, mid);
+        build(2 * node + 1, mid, hi);
+    }
+
+    // Set the bounding box of node to that of leaf positions [lo, hi).
+    private void bound(int node, int lo, int hi) {
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int j = lo; j < hi; j++) {
+            if (px[j] < x0) x0 = px[j];
+            if (px[j] > x1) x1 = px[j];
+            if (py[j] < y0) y0 = py[j];
+            if (py[j] > y1) y1 = py[j];
+        }
+        minX[node] = x0;
+        minY[node] = y0;
+        maxX[node] = x1;
+        maxY[node] = y1;
+    }
+
+    // Bring the tree up to date with moved points, keeping its topology
+    // where the points still fit it.
+    private void refit() {
+        // Gather the new coordinates into leaf order.
+        for (int j = 0; j < N; j++) {
+            px[j] = xs[perm[j]];
+            py[j] = ys[perm[j]];
+        }
+        refit(1, 0, N);
+        rebuild(1, 0, N);
+        moved = false;
+    }
+
+    // Helper for refit(). Recompute the bounding boxes of node at leaf
+    // positions [lo, hi) and its subtrees, bottom up.
+    private void refit(int node, int lo, int hi) {
+        if (hi - lo <= BUCKET_SIZE) {
+            bound(node, lo, hi);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int lb = 2 * node;
+        int rt = 2 * node + 1;
+        refit(lb, lo, mid);
+        refit(rt, mid, hi);
+        minX[node] = Math.min(minX[lb], minX[rt]);
+        minY[node] = Math.min(minY[lb], minY[rt]);
+        maxX[node] = Math.max(maxX[lb], maxX[rt]);
+        maxY[node] = Math.max(maxY[lb], maxY[rt]);
+    }
+
+    // Helper for refit(). Rebuild the subtree of node at leaf positions
+    // [lo, hi) if the boxes of its children overlap along its split by more
+    // than SLACK times the width of its box, or else look at its children
+    // the same way. Top down, so that no point is rebuilt twice.
+    private void rebuild(int node, int lo, int hi) {
+        if (hi - lo <= BUCKET_SIZE) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int lb = 2 * node;
+        int rt = 2 * node + 1;
+        double overlap, width;
+        if (byX[node]) {
+            overlap = maxX[lb] - minX[rt];
+            width = maxX[node] - minX[node];
+        } else {
+            overlap = maxY[lb] - minY[rt];
+            width = maxY[node] - minY[node];
+        }
+        if (overlap > SLACK * width) {
+            build(node, lo, hi);
+            return;
+        }
+        rebuild(lb, lo, mid);
+        rebuild(rt, mid, hi);
+    }
+
+    // Rearrange leaf positions [lo, hi] so that position m holds the
+    // median coordinate, with no larger coordinate before it and no smaller
+    // one after it.
+    private void select(int lo, int hi, int m, boolean onX) {
+        double[] c = onX ? px : py;
+        while (hi > lo) {
+            // Partition around the middle element.
+            double pivot = c[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (c[i] < pivot) i++;
+                while (c[j] > pivot) j--;
+                if (i <= j) {
+                    exch(i++, j--);
+                }
+            }
+            if      (m <= j) hi = j;
+            else if (m >= i) lo = i;
+            else             return;
+        }
+    }
+
+    // Swap leaf positions i and j.
+    private void exch(int i, int j) {
+        double tx = px[i]; px[i] = px[j]; px[j] = tx;
+        double ty = py[i]; py[i] = py[j]; py[j] = ty;
+        int t = perm[i]; perm[i] = perm[j]; perm[j] = t;
+    }
+
+   /*************************************************************************
+    *  Point hashing and array management.
+    *************************************************************************/
+
+    // Return the index of point (x, y), or -1 if it is absent.
+    private int indexOf(double x, double y) {
+        return table.indexOf(xs, ys, x, y);
+    }
+
+    // Move the points to arrays of the given capacity and rehash them.
+    private void resize(int capacity) {
+        double[] tx = new double[capacity];
+        double[] ty = new double[capacity];
+        Value[] tv = (Value[]) new Object[capacity];
+        for (int i = 0; i < N; i++) {
+            tx[i] = xs[i];
+            ty[i] = ys[i];
+            tv[i] = vals[i];
+        }
+        xs = tx;
+        ys = ty;
+        vals = tv;
+        table.rehash(xs, ys, N, capacity);
+    }
+
+    // Test client. [DO NOT EDIT]
+    public static void main(String[] args) {
+        FlatKdTreeST<Integer> st = new FlatKdTreeST<Integer>();
+        Point2D query = new Point2D(0.661633, 0.287141);
+        Point2D origin = new Point2D(0, 0);
+        int i = 0;
+        while (!StdIn.isEmpty()) {
+            double x = StdIn.readDouble();
+            double y = StdIn.readDouble();
+            Point2D p = new Point2D(x, y);
+            st.put(p, i++);
+        }
+        StdOut.println("st.empty()? " + st.isEmpty());
+        StdOut.println("st.size() = " + st.size());
+        StdOut.println("First five values:");
+        i = 0;
+        for (Point2D p : st.points()) {
+            StdOut.println("  " + st.get(p));
+            if (i++ == 5) {
+                break;
+            }
+        }
+        StdOut.println("st.contains(" + query + ")? " + st.contains(query));
+        StdOut.println("st.contains(" + origin + ")? " + st.contains(origin));
+        StdOut.println("st.range([0.65, 0.68]x[0.28, 0.29]):");
+        for (Point2D p : st.range(new RectHV(0.65, 0.28, 0.68, 0.29))) {
+            StdOut.println("  " + p);
+        }
+        StdOut.println("st.nearest(" + query + ") = " + st.nearest(query));
+        StdOut.println("st.nearest(" + query + "):");
+        for (Point2D p : st.nearest(query, 7)) {
+            StdOut.println("  " + p);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*************************************************************************
+ *  Compilation:  javac Flock.java
+ *  Dependencies: Boid.java
+ *
+ *  A flock of boids stored as a structure of arrays.
+ *
+ *  The positions and velocities of all boids live in four primitive
+ *  arrays, so a boid costs 32 bytes of state instead of a Point2D, a
+ *  Vector and its double[] per boid, and stepping a boid allocates nothing
+ *  to hold its new state. A Boid is only a view of one slot of a flock;
+ *  the views are created once, with the flock.
+ *
+ *************************************************************************/
+
+public class Flock {
+    private final double[] x, y;    // positions
+    private final double[] vx, vy;  // velocities
+    private final Boid[] boids;     // the view of each slot
+
+    // create a flock of N boids at the origin with zero velocity
+    public Flock(int N) {
+        x = new double[N];
+        y = new double[N];
+        vx = new double[N];
+        vy = new double[N];
+        boids = new Boid[N];
+        for (int i = 0; i < N; i++)
+            boids[i] = new Boid(this, i);
+    }
+
+    // number of boids in the flock
+    public int size() {
+        return boids.length;
+    }
+
+    // the view of boid i
+    public Boid boid(int i) {
+        return boids[i];
+    }
+
+    // the views of all boids, indexed by slot; not to be modified
+    public Boid[] boids() {
+        return boids;
+    }
+
+    // the x- and y-coordinates of all boids, indexed by slot; not to be
+    // modified
+    public double[] xs() {
+        return x;
+    }
+
+    public double[] ys() {
+        return y;
+    }
+
+    // accessor methods for the state of boid i
+    public double x(int i)  { return x[i];  }
+    public double y(int i)  { return y[i];  }
+    public double vx(int i) { return vx[i]; }
+    public double vy(int i) { return vy[i]; }
+
+    // set the position and velocity of boid i
+    public void set(int i, double x, double y, double vx, double vy) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+    }
+
+    // set the position of boid i
+    public void setPosition(int i, double x, double y) {
+        this.x[i] = x;
+        this.y[i] = y;
+    }
+
+    // set the velocity of boid i
+    public void setVelocity(int i, double vx, double vy) {
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+    }
+
+    // make this flock a copy of that flock of the same size
+    public void copy(Flock that) {
+        int N = size();
+        System.arraycopy(that.x, 0, x, 0, N);
+        System.arraycopy(that.y, 0, y, 0, N);
+        System.arraycopy(that.vx, 0, vx, 0, N);
+        System.arraycopy(that.vy, 0, vy, 0, N);
+    }
+}
@@ -0,0 +1,198 @@
+/*************************************************************************
+ *  Compilation:  javac FrameStats.java
+ *  Dependencies: StdDraw.java PixelRenderer.java
+ *
+ *  Per-phase frame timing for the boid simulator.
+ *
+ *  Each phase of a frame records its duration in nanoseconds into a
+ *  histogram of log-linear buckets: 8 buckets per power of two, so any
+ *  duration from 1 ns to centuries lands in one of about 500 counters,
+ *  whose midpoint is within 6.25% of it, and recording is an atomic
+ *  increment of one counter.
+ *  Once a second the histograms are summarized (frames per second, and
+ *  the median and 99th percentile of every phase), the summary is kept
+ *  for the on-screen overlay and handed as one CSV line to a background
+ *  thread that writes it to a file, and the histograms start over.
+ *
+ *  Phases may be recorded from more than one thread, for example when the
+ *  simulation steps on a thread of its own. Recording takes no lock, so
+ *  the stepping threads never wait on the drawing thread; ending a frame
+ *  and summarizing take the stats' lock, and a summary empties each
+ *  counter as it reads it, so a sample recorded meanwhile counts toward
+ *  this period or the next. The file is written on a thread of its own.
+ *
+ *************************************************************************/
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class FrameStats {
+    private static final int SUB_BUCKETS = 8;       // buckets per power of two
+    private static final int BUCKETS = 62 * SUB_BUCKETS;
+    private static final long PERIOD = 1000000000L;  // summary period, in ns
+    private static final String END = "";            // tells the writer to stop
+
+    private final String[] phases;  // phase names
+    private final AtomicLongArray counts; // samples of phase p in bucket b
+                                          // are at p * BUCKETS + b
+    private final long start;       // time the stats were created
+    private long periodStart;       // time the current period began
+    private int frames;             // frames ended this period
+
+    // the last summary: frames per second and per-phase percentiles, in ms
+    private double fps;
+    private final double[] p50, p99;
+
+    // the CSV lines waiting to be written, and the thread that writes them
+    private final BlockingQueue<String> lines;
+    private final Thread writer;
+
+    // Create stats for the named phases that write a summary line per
+    // second to the given CSV file, or to no file if it is null.
+    public FrameStats(String file, String... phases) throws IOException {
+        this.phases = phases.clone();
+        counts = new AtomicLongArray(phases.length * BUCKETS);
+        p50 = new double[phases.length];
+        p99 = new double[phases.length];
+        start = System.nanoTime();
+        periodStart = start;
+        lines = new LinkedBlockingQueue<String>();
+        if (file == null) {
+            writer = null;
+            return;
+        }
+
+        final PrintWriter out = new PrintWriter(new FileWriter(file));
+        StringBuilder header = new StringBuilder("seconds,frames,fps");
+        for (String phase : phases) {
+            header.append(',').append(phase).append("_p50_ms");
+            header.append(',').append(phase).append("_p99_ms");
+        }
+        out.println(header);
+        out.flush();
+        writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        String line = lines.take();
+                        if (line.equals(END)) break;
+                        out.println(line);
+                        out.flush();
+                    }
+                }
+                catch (InterruptedException e) { }
+                out.close();
+            }
+        }, "FrameStats writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Return the bucket of a duration of nanos.
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) Math.max(nanos, 0);
+        int e = 63 - Long.numberOfLeadingZeros(nanos);  // nanos >= 2^e, e >= 3
+        int sub = (int) (nanos >>> (e - 3)) & (SUB_BUCKETS - 1);
+        return (e - 2) * SUB_BUCKETS + sub;
+    }
+
+    // Return the duration in the middle of bucket b.
+    private static double middle(int b) {
+        if (b < SUB_BUCKETS) return b;
+        int e = b / SUB_BUCKETS + 2;
+        return (SUB_BUCKETS + b % SUB_BUCKETS + 0.5) * (1L << (e - 3));
+    }
+
+    // Record that phase took the given number of nanoseconds this frame.
+    public void record(int phase, long nanos) {
+        counts.incrementAndGet(phase * BUCKETS + bucket(nanos));
+    }
+
+    // End a frame; once a second, summarize the frames since the last
+    // summary and start over.
+    public synchronized void endFrame() {
+        frames++;
+        long now = System.nanoTime();
+        if (now - periodStart >= PERIOD) summarize(now);
+    }
+
+    // Summarize the frames since the last summary, queue the summary for
+    // the writer and start over.
+    private synchronized void summarize(long now) {
+        fps = frames * 1e9 / (now - periodStart);
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%.3f,%d,%.1f", (now - start) / 1e9, frames, fps));
+        long[] histogram = new long[BUCKETS];
+        for (int p = 0; p < phases.length; p++) {
+            long samples = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[b] = counts.getAndSet(p * BUCKETS + b, 0);
+                samples += histogram[b];
+            }
+            p50[p] = percentile(histogram, samples, 0.50) / 1e6;
+            p99[p] = percentile(histogram, samples, 0.99) / 1e6;
+            line.append(String.format(",%.4f,%.4f", p50[p], p99[p]));
+        }
+        if (writer != null) lines.add(line.toString());
+        frames = 0;
+        periodStart = now;
+    }
+
+    // Return the duration below which the fraction q of the given number
+    // of samples in histogram fall, to within a bucket; 0 if there are none.
+    private static double percentile(long[] histogram, long samples, double q) {
+        long rank = (long) Math.ceil(q * samples);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += histogram[b];
+            if (seen >= Math.max(rank, 1)) return middle(b);
+        }
+        return 0;
+    }
+
+    // Return the last summary as lines of text.
+    private synchronized String[] overlay() {
+        String[] text = new String[phases.length + 1];
+        text[0] = String.format("%.1f fps    p50 / p99 ms", fps);
+        for (int p = 0; p < phases.length; p++) {
+            text[p + 1] = String.format("%-7s %8.3f %8.3f", phases[p], p50[p], p99[p]);
+        }
+        return text;
+    }
+
+    // Draw the last summary as lines of text, the first at (x, y) and each
+    // next one lineHeight below, in the current StdDraw scale.
+    public void draw(double x, double y, double lineHeight) {
+        StdDraw.setPenColor(StdDraw.DARK_GRAY);
+        for (String line : overlay()) {
+            StdDraw.textLeft(x, y, line);
+            y -= lineHeight;
+        }
+    }
+
+    // Draw the last summary the same way into the image of renderer.
+    public void draw(PixelRenderer renderer, double x, double y, double lineHeight) {
+        for (String line : overlay()) {
+            renderer.textLeft(x, y, line, 0x404040);
+            y -= lineHeight;
+        }
+    }
+
+    // Summarize the frames since the last summary, write the lines still
+    // queued and stop the writer.
+    public void close() {
+        if (writer == null) return;
+        if (frames > 0) summarize(System.nanoTime());
+        lines.add(END);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,590 @@
+/*************************************************************************
+ *  Compilation:  javac HashGridST.java
+ *  Execution:    java HashGridST < input.txt
+ *  Dependencies: ST.java Point2D.java RectHV.java Queue.java NeighborPQ.java
+ *                StdIn.java StdOut.java
+ *
+ *  A symbol table of points stored in a sparse uniform grid (cell list).
+ *
+ *  The plane is cut into square cells of side cellSize and only occupied
+ *  cells are stored, in a linear-probing hash table keyed on the cell's
+ *  integer coordinates, so the points may lie anywhere in the plane. The
+ *  points of a cell form a linked list threaded through a primitive next[]
+ *  array; put, get and contains only look at one cell.
+ *
+ *  The cell size adapts to the observed density: whenever the number of
+ *  points doubles, it is re-estimated from the bounding box of the points
+ *  and then corrected by the mean occupancy of the non-empty cells, and
+ *  every point is re-bucketed. A k-nearest-neighbor query scans rings of
+ *  cells around the query's cell, clipped to the occupied region, and stops
+ *  once the k-th best distance is within the gap to the next ring.
+ *
+ *  Cell coordinates are longs. A point more than 2^60 cells from the
+ *  origin makes the grid coarser, so that the coordinates of every cell
+ *  and the distances between them stay exact however far out the points
+ *  lie; queries that far out scan every point instead.
+ *
+ *************************************************************************/
+
+public class HashGridST<Value> implements ST<Value> {
+    private static final int INIT_CAPACITY = 16;  // initial array capacity
+    private static final double OCCUPANCY = 3.0;  // target points per cell
+    private static final double REACH = 0x1p60;   // max cells from the origin
+
+    private double[] xs, ys; // point coordinates, in insertion order
+    private Value[] vals;    // associated values, in insertion order
+    private int[] next;      // next point in the same cell; -1 if none
+    private int N;           // number of points in the symbol table
+    private int gridN;       // number of points when the grid was sized
+    private double reach;    // largest coordinate of a point, in absolute value
+
+    private double cellSize; // side length of a cell
+    private long[] keyX, keyY; // coordinates of the occupied cells
+    private int[] heads;     // first point of each cell + 1; 0 if unused
+    private int cells;       // number of occupied cells
+    private long minCx, minCy, maxCx, maxCy; // range of occupied cells
+
+    private NeighborPQ pq;   // indices of the k-NN candidates
+
+    // Construct an empty symbol table of points.
+    public HashGridST() {
+        xs = new double[INIT_CAPACITY];
+        ys = new double[INIT_CAPACITY];
+        vals = (Value[]) new Object[INIT_CAPACITY];
+        next = new int[INIT_CAPACITY];
+        pq = new NeighborPQ(1);
+        cellSize = 1.0;
+        clear(INIT_CAPACITY);
+        N = 0;
+        gridN = 0;
+    }
+
+    // Return true if the symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+    // Return the number points in the symbol table.
+    public int size() {
+        return N;
+    }
+
+    // Associate the value val with point p.
+    public void put(Point2D p, Value val) {
+        // Replace the value if the point is already present.
+        int i = indexOf(p.x(), p.y());
+        if (i >= 0) {
+            vals[i] = val;
+            return;
+        }
+        if (N == xs.length) {
+            resize(2 * xs.length);
+        }
+        xs[N] = p.x();
+        ys[N] = p.y();
+        vals[N] = val;
+        N++;
+        reach = Math.max(reach, Math.max(Math.abs(p.x()), Math.abs(p.y())));
+        // Re-estimate the cell size each time the number of points doubles,
+        // or when a point lies too many cells from the origin.
+        if (N > 2 * gridN || reach >= REACH * cellSize) {
+            regrid();
+        } else {
+            link(N - 1);
+        }
+    }
+
+    // Return the value associated with point p.
+    public Value get(Point2D p) {
+        int i = indexOf(p.x(), p.y());
+        if (i < 0) {
+            return null;
+        }
+        return vals[i];
+    }
+
+    // Return true if the symbol table contains the point p, and false
+    // otherwise.
+    public boolean contains(Point2D p) {
+        return indexOf(p.x(), p.y()) >= 0;
+    }
+
+    // Return all points in the symbol table, in insertion order.
+    public Iterable<Point2D> points() {
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < N; i++) {
+            q.enqueue(new Point2D(xs[i], ys[i]));
+        }
+        return q;
+    }
+
+    // Return all points in the symbol table that are inside the rectangle
+    // rect.
+    public Iterable<Point2D> range(RectHV rect) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        int[] found = new int[N];
+        int n = rangeIndices(rect, found);
+        for (int j = 0; j < n; j++) {
+            q.enqueue(new Point2D(xs[found[j]], ys[found[j]]));
+        }
+        return q;
+    }
+
+    // Write the numbers of the points inside the rectangle rect into out,
+    // which must have room for size() of them; return the number written.
+    public int rangeIndices(RectHV rect, int[] out) {
+        if (N == 0) {
+            return 0;
+        }
+        // Clip the rectangle's cells to the occupied region.
+        long x0 = Math.max(cell(rect.xmin()), minCx);
+        long x1 = Math.min(cell(rect.xmax()), maxCx);
+        long y0 = Math.max(cell(rect.ymin()), minCy);
+        long y1 = Math.min(cell(rect.ymax()), maxCy);
+        if (x0 > x1 || y0 > y1) {
+            return 0;
+        }
+        // Visit the covered cells, or every point if that is cheaper.
+        int n = 0;
+        if ((x1 - x0 + 1.0) * (y1 - y0 + 1.0) > cells) {
+            for (int i = 0; i < N; i++) {
+                if (rect.contains(xs[i], ys[i])) {
+                    out[n++] = i;
+                }
+            }
+            return n;
+        }
+        for (long cx = x0; cx <= x1; cx++) {
+            for (long cy = y0; cy <= y1; cy++) {
+                for (int i = heads[slot(cx, cy)] - 1; i >= 0; i = next[i]) {
+                    if (rect.contains(xs[i], ys[i])) {
+                        out[n++] = i;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    // Return a nearest neighbor to point p; null if the symbol table is empty.
+    public Point2D nearest(Point2D p) {
+        // Account for the query point returning itself.
+        if (search(p.x(), p.y(), 1) == 0) {
+            return null;
+        }
+        int i = pq.maxItem();
+        return new Point2D(xs[i], ys[i]);
+    }
+
+    // Return k points that are closest to point p.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        return nearest(p, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Return the (at most) k points other than p closest to p that are
+    // within distance maxRadius of it, closest first.
+    public Iterable<Point2D> nearest(Point2D p, int k, double maxRadius) {
+        int n = search(p.x(), p.y(), k, maxRadius * maxRadius, pq);
+        // Drain the max-heap so that the points come out closest first.
+        Point2D[] a = new Point2D[n];
+        for (int j = n - 1; j >= 0; j--) {
+            int i = pq.maxItem();
+            a[j] = new Point2D(xs[i], ys[i]);
+            pq.delMax();
+        }
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int j = 0; j < n; j++) {
+            q.enqueue(a[j]);
+        }
+        return q;
+    }
+
+    // Return all points other than p within distance r of p.
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        if (N == 0) {
+            return q;
+        }
+        double x = p.x();
+        double y = p.y();
+        double r2 = r * r;
+        // Clip the cells of the circle's bounding box to the occupied region.
+        long x0 = Math.max(cell(x - r), minCx);
+        long x1 = Math.min(cell(x + r), maxCx);
+        long y0 = Math.max(cell(y - r), minCy);
+        long y1 = Math.min(cell(y + r), maxCy);
+        if (x0 > x1 || y0 > y1) {
+            return q;
+        }
+        // Visit the covered cells, or every point if that is cheaper.
+        if ((x1 - x0 + 1.0) * (y1 - y0 + 1.0) > cells) {
+            for (int i = 0; i < N; i++) {
+                within(i, x, y, r2, q);
+            }
+            return q;
+        }
+        for (long cx = x0; cx <= x1; cx++) {
+            for (long cy = y0; cy <= y1; cy++) {
+                for (int i = heads[slot(cx, cy)] - 1; i >= 0; i = next[i]) {
+                    within(i, x, y, r2, q);
+                }
+            }
+        }
+        return q;
+    }
+
+    // Enqueue point i if it is within squared distance r2 of (x, y) but
+    // not equal to it.
+    private void within(int i, double x, double y, double r2, Queue<Point2D> q) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        if ((dx != 0.0 || dy != 0.0) && dx*dx + dy*dy <= r2) {
+            q.enqueue(new Point2D(xs[i], ys[i]));
+        }
+    }
+
+    // Write the values of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearest(double x, double y, int k, Value[] out) {
+        int n = search(x, y, k);
+        for (int j = n - 1; j >= 0; j--) {
+            out[j] = vals[pq.maxItem()];
+            pq.delMax();
+        }
+        return n;
+    }
+
+    // Write the numbers of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearestIndices(double x, double y, int k, int[] out) {
+        search(x, y, k);
+        return pq.drain(out, 0);
+    }
+
+    // Return the graph joining each point to the (at most) k other points
+    // closest to it. Rows are computed in parallel.
+    public NeighborGraph<Value> allNearest(int k) {
+        return allNearest(xs, ys, N, Math.min(k, N - 1));
+    }
+
+    // Return the graph joining each query point (qx[i], qy[i]) to the (at
+    // most) k points other than itself closest to it. Rows are computed in
+    // parallel.
+    public NeighborGraph<Value> allNearest(double[] qx, double[] qy, int k) {
+        return allNearest(qx, qy, qx.length, Math.min(k, N));
+    }
+
+    // Return the graph joining each of the first n query points to the (at
+    // most) degree points other than itself closest to it.
+    private NeighborGraph<Value> allNearest(final double[] qx,
+                                            final double[] qy, int n,
+                                            final int degree) {
+        return NeighborGraph.build(n, degree, null, vals.clone(),
+            new NeighborGraph.RowSearch() {
+                public int search(int i, NeighborPQ pq, int[] adjacent, int lo) {
+                    HashGridST.this.search(qx[i], qy[i], degree,
+                                           Double.POSITIVE_INFINITY, pq);
+                    return pq.drain(adjacent, lo);
+                }
+            });
+    }
+
+    // Collect into pq the (at most) k points closest to (x, y), skipping
+    // points equal to (x, y); return the number collected.
+    private int search(double x, double y, int k) {
+        return search(x, y, k, Double.POSITIVE_INFINITY, pq);
+    }
+
+    // Collect into the given queue the (at most) k points within squared
+    // distance maxKey closest to (x, y), skipping points equal to (x, y);
+    // return the number collected.
+    private int search(double x, double y, int k, double maxKey,
+                       NeighborPQ pq) {
+        pq.reset(k, maxKey);
+        if (N == 0 || k <= 0) {
+            return 0;
+        }
+        // Far beyond the grid, ring arithmetic could overflow; scan.
+        if (Math.abs(x) >= REACH * cellSize || Math.abs(y) >= REACH * cellSize) {
+            for (int i = 0; i < N; i++) {
+                offer(i, x, y, pq);
+            }
+            return pq.size();
+        }
+        long cx = cell(x);
+        long cy = cell(y);
+        // Rings closer than the occupied region are empty, and rings beyond
+        // it hold nothing more.
+        long first = Math.max(Math.max(minCx - cx, cx - maxCx),
+                              Math.max(minCy - cy, cy - maxCy));
+        long last = Math.max(Math.max(cx - minCx, maxCx - cx),
+                             Math.max(cy - minCy, maxCy - cy));
+        // Distance from the query to the nearest side of its own cell.
+        double edge = Math.min(Math.min(x - cx * cellSize, (cx + 1) * cellSize - x),
+                               Math.min(y - cy * cellSize, (cy + 1) * cellSize - y));
+        edge = Math.max(edge, 0.0);
+        long visited = 0;
+        for (long r = Math.max(first, 0); r <= last; r++) {
+            // Every point in ring r or beyond is at least r - 1 whole cells
+            // plus the query's distance to its cell edge away.
+            double gap = (r - 1) * cellSize + edge;
+            if (r > 0 && pq.bound() <= gap * gap) {
+                break;
+            }
+            visited += 1 + ring(cx, cy, r, x, y, pq);
+            // Sparse points make for many empty cells or rings; fall back to
+            // a scan.
+            if (visited > N) {
+                pq.reset(k, maxKey);
+                for (int i = 0; i < N; i++) {
+                    offer(i, x, y, pq);
+                }
+                break;
+            }
+        }
+        return pq.size();
+    }
+
+    // Offer the points in the ring of cells at Chebyshev distance r from
+    // cell (cx, cy), clipped to the occupied region; return the number of
+    // cells looked up.
+    private int ring(long cx, long cy, long r, double x, double y,
+                     NeighborPQ pq) {
+        if (r == 0) {
+            scan(cx, cy, x, y, pq);
+            return 1;
+        }
+        int looked = 0;
+        // Bottom and top rows, corners included.
+        long x0 = Math.max(cx - r, minCx);
+        long x1 = Math.min(cx + r, maxCx);
+        for (long cy1 = cy - r; cy1 <= cy + r; cy1 += 2 * r) {
+            if (cy1 < minCy || cy1 > maxCy) continue;
+            for (long cx1 = x0; cx1 <= x1; cx1++) {
+                scan(cx1, cy1, x, y, pq);
+                looked++;
+            }
+        }
+        // Left and right columns, corners excluded.
+        long y0 = Math.max(cy - r + 1, minCy);
+        long y1 = Math.min(cy + r - 1, maxCy);
+        for (long cx1 = cx - r; cx1 <= cx + r; cx1 += 2 * r) {
+            if (cx1 < minCx || cx1 > maxCx) continue;
+            for (long cy1 = y0; cy1 <= y1; cy1++) {
+                scan(cx1, cy1, x, y, pq);
+                looked++;
+            }
+        }
+        return looked;
+    }
+
+    // Offer the points of cell (cx, cy).
+    private void scan(long cx, long cy, double x, double y, NeighborPQ pq) {
+        for (int i = heads[slot(cx, cy)] - 1; i >= 0; i = next[i]) {
+            offer(i, x, y, pq);
+        }
+    }
+
+    // Offer point i unless it equals (x, y).
+    private void offer(int i, double x, double y, NeighborPQ pq) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        if (dx == 0.0 && dy == 0.0) {
+            return;
+        }
+        pq.offer(dx*dx + dy*dy, i);
+    }
+
+   /*************************************************************************
+    *  Grid management.
+    *************************************************************************/
+
+    // Return the coordinate of the cell containing v along one axis.
+    private long cell(double v) {
+        return (long) Math.floor(v / cellSize);
+    }
+
+    // Return the index of point (x, y), or -1 if it is absent.
+    private int indexOf(double x, double y) {
+        if (N == 0) {
+            return -1;
+        }
+        long cx = cell(x);
+        long cy = cell(y);
+        if (cx < minCx || cx > maxCx || cy < minCy || cy > maxCy) {
+            return -1;
+        }
+        for (int i = heads[slot(cx, cy)] - 1; i >= 0; i = next[i]) {
+            if (xs[i] == x && ys[i] == y) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Add point i to the list of its cell.
+    private void link(int i) {
+        long cx = cell(xs[i]);
+        long cy = cell(ys[i]);
+        int h = slot(cx, cy);
+        if (heads[h] == 0) {
+            // Occupy a new cell.
+            keyX[h] = cx;
+            keyY[h] = cy;
+            cells++;
+            if (cx < minCx) minCx = cx;
+            if (cx > maxCx) maxCx = cx;
+            if (cy < minCy) minCy = cy;
+            if (cy > maxCy) maxCy = cy;
+        }
+        next[i] = heads[h] - 1;
+        heads[h] = i + 1;
+        // Keep the cell table at most half full.
+        if (2 * cells > heads.length) {
+            rehash(2 * heads.length);
+        }
+    }
+
+    // Return the slot of cell (cx, cy) in the cell table: the slot holding
+    // the cell if it is occupied, or the empty slot where it would go.
+    private int slot(long cx, long cy) {
+        int h = hash(cx, cy);
+        while (heads[h] != 0 && (keyX[h] != cx || keyY[h] != cy)) {
+            h = (h + 1) & (heads.length - 1);
+        }
+        return h;
+    }
+
+    // Hash cell coordinates to a slot of the cell table.
+    private int hash(long cx, long cy) {
+        long key = cx * 0x9E3779B97F4A7C15L + cy;
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        h ^= (h >>> 16);
+        return h & (heads.length - 1);
+    }
+
+    // Move the occupied cells to a table with the given number of slots.
+    private void rehash(int capacity) {
+        long[] oldX = keyX;
+        long[] oldY = keyY;
+        int[] oldHeads = heads;
+        keyX = new long[capacity];
+        keyY = new long[capacity];
+        heads = new int[capacity];
+        for (int h = 0; h < oldHeads.length; h++) {
+            if (oldHeads[h] != 0) {
+                int t = slot(oldX[h], oldY[h]);
+                keyX[t] = oldX[h];
+                keyY[t] = oldY[h];
+                heads[t] = oldHeads[h];
+            }
+        }
+    }
+
+    // Empty the grid, with a cell table of the given number of slots.
+    private void clear(int capacity) {
+        keyX = new long[capacity];
+        keyY = new long[capacity];
+        heads = new int[capacity];
+        cells = 0;
+        minCx = Long.MAX_VALUE;
+        minCy = Long.MAX_VALUE;
+        maxCx = Long.MIN_VALUE;
+        maxCy = Long.MIN_VALUE;
+    }
+
+    // Choose a cell size for the current points and re-bucket them all.
+    private void regrid() {
+        // Estimate the cell size from the bounding box of the points, so
+        // that a cell holds about OCCUPANCY points on average.
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < N; i++) {
+            x0 = Math.min(x0, xs[i]);
+            x1 = Math.max(x1, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            y1 = Math.max(y1, ys[i]);
+        }
+        double side = Math.max(x1 - x0, y1 - y0);
+        double area = Math.max((x1 - x0) * (y1 - y0), side * side / N);
+        if (area > 0) {
+            cellSize = Math.sqrt(area * OCCUPANCY / N);
+        }
+        cellSize = Math.max(cellSize, 2 * reach / REACH);
+        rebucket();
+        // The bounding box overestimates the density of a clustered flock
+        // with stragglers, so correct by the observed occupancy once.
+        double occupancy = (double) N / cells;
+        if (occupancy > 2 * OCCUPANCY || occupancy < OCCUPANCY / 2) {
+            cellSize *= Math.sqrt(OCCUPANCY / occupancy);
+            cellSize = Math.max(cellSize, 2 * reach / REACH);
+            rebucket();
+        }
+        gridN = N;
+    }
+
+    // Empty the grid and re-link every point under the current cell size.
+    private void rebucket() {
+        int capacity = INIT_CAPACITY;
+        while (capacity < 2 * N) {
+            capacity *= 2;
+        }
+        clear(capacity);
+        for (int i = 0; i < N; i++) {
+            link(i);
+        }
+    }
+
+    // Move the points to arrays of the given capacity.
+    private void resize(int capacity) {
+        double[] tx = new double[capacity];
+        double[] ty = new double[capacity];
+        Value[] tv = (Value[]) new Object[capacity];
+        int[] tn = new int[capacity];
+        for (int i = 0; i < N; i++) {
+            tx[i] = xs[i];
+            ty[i] = ys[i];
+            tv[i] = vals[i];
+            tn[i] = next[i];
+        }
+        xs = tx;
+        ys = ty;
+        vals = tv;
+        next = tn;
+    }
+
+    // Test client. [DO NOT EDIT]
+    public static void main(String[] args) {
+        HashGridST<Integer> st = new HashGridST<Integer>();
+        Point2D query = new Point2D(0.661633, 0.287141);
+        Point2D origin = new Point2D(0, 0);
+        int i = 0;
+        while (!StdIn.isEmpty()) {
+            double x = StdIn.readDouble();
+            double y = StdIn.readDouble();
+            Point2D p = new Point2D(x, y);
+            st.put(p, i++);
+        }
+        StdOut.println("st.empty()? " + st.isEmpty());
+        StdOut.println("st.size() = " + st.size());
+        StdOut.println("First five values:");
+        i = 0;
+        for (Point2D p : st.points()) {
+            StdOut.println("  " + st.get(p));
+            if (i++ == 5) {
+                break;
+            }
+        }
+        StdOut.println("st.contains(" + query + ")? " + st.contains(query));
+        StdOut.println("st.contains(" + origin + ")? " + st.contains(origin));
+        StdOut.println("st.range([0.65, 0.68]x[0.28, 0.29]):");
+        for (Point2D p : st.range(new RectHV(0.65, 0.28, 0.68, 0.29))) {
+            StdOut.println("  " + p);
+        }
+        StdOut.println("st.nearest(" + query + ") = " + st.nearest(query));
+        StdOut.println("st.nearest(" + query + "):");
+        for (Point2D p : st.nearest(query, 7)) {
+            StdOut.println("  " + p);
+        }
+    }
+}
@@ -1,40 +1,43 @@
 public class Hawk {
-    private Point2D position;
-    private Vector velocity;
+    // Like the boids of a Flock, the hawk keeps its state in primitives.
+    private double x, y;    // position
+    private double vx, vy;  // velocity
 
     // create a hawk at (x, y) with zero velocity
     public Hawk(double x, double y)
     {
-        position = new Point2D(x, y);
-        velocity = new Vector(2);
+        this.x = x;
+        this.y = y;
     }
 
     public Point2D position() {
-        return position;
+        return new Point2D(x, y);
     }
 
     public double x()
     {
-        return position.x();
+        return x;
     }
 
     public double y()
     {
-        return position.y();
+        return y;
     }
 
     // compare by y-coordinate, breaking ties by x-coordinate
     public int compareTo(Hawk that) {
-        if (this.position.y() < that.position.y()) return -1;
-        if (this.position.y() > that.position.y()) return +1;
-        if (this.position.x() < that.position.x()) return -1;
-        if (this.position.x() > that.position.x()) return +1;
+        if (this.y < that.y) return -1;
+        if (this.y > that.y) return +1;
+        if (this.x < that.x) return -1;
+        if (this.x > that.x) return +1;
         return 0;
     }
 
     // compare by y-coordinate, breaking ties by x-coordinate
     public double distanceSquaredTo(Hawk that) {
-        return position.distanceSquaredTo(that.position);
+        double dx = this.x - that.x;
+        double dy = this.y - that.y;
+        return dx*dx + dy*dy;
     }
 
     public Vector returnToWorld()
@@ -55,13 +58,17 @@ public class Hawk {
         return requestedVector;     
     }           
 
+    // move, then steer toward the nearest boid; with no boid to chase
+    // (null), only move
     public Vector updatePositionAndVelocity(Boid nearest)
     {
-        double x = x() + velocity.cartesian(0);
-        double y = y() + velocity.cartesian(1);
-        position = new Point2D(x, y);
+        x += vx;
+        y += vy;
+        if (nearest == null)
+            return new Vector(2);
         Vector desire = eatBoid(nearest).direction().times(0.0003);
-        velocity = velocity.plus(desire);
+        vx += desire.cartesian(0);
+        vy += desire.cartesian(1);
         return desire;
     }
 
@@ -1,23 +1,40 @@
 //import java.io.*;
+import java.util.Arrays;
+
 public class KdTreeST<Value> implements ST<Value> {
-    private Node root; // root of the KdTree
-    private int N;     // number of nodes in the KdTree
+    private Node root;    // root of the KdTree
+    private int N;        // number of nodes in the KdTree
+    private Node[] nodes; // nodes[i] is the node with id i
+    private NeighborPQ pq; // the closest candidates of the current query
+    private double shrink; // 1 / (1 + eps)^2 for (1 + eps)-approximate queries
+    private long visited;  // nodes visited by nearest queries so far
+
+    // Optional aggregates of the subtree rooted at each node, indexed by
+    // id: the number of points, the sums of their coordinates and
+    // velocities, and their bounding box, along with the velocity of each
+    // point. null unless the table was constructed to keep them.
+    private int[] count;
+    private double[] sumX, sumY, sumVx, sumVy;
+    private double[] minX, minY, maxX, maxY;
+    private double[] velX, velY;
+    private volatile boolean aggregated; // are the aggregates up to date?
 
-    // 2d-tree (generalization of a BST in 2d) representation.
+    // 2d-tree (generalization of a BST in 2d) representation. The
+    // axis-aligned rectangle corresponding to a node is not stored: the
+    // searches derive it on the way down by splitting the rectangle of the
+    // parent at the parent's point.
     private class Node {
         private Point2D p;   // the point
         private Value val;   // the symbol table maps the point to this value
-        private RectHV rect; // the axis-aligned rectangle corresponding to 
-                             // this node
         private Node lb;     // the left/bottom subtree
         private Node rt;     // the right/top subtree
+        private int id;      // number of nodes inserted before this one
 
-        // Construct a node given the point, the associated value, and the 
-        // axis-aligned rectangle corresponding to the node.
-        public Node(Point2D p, Value val, RectHV rect) {
+        // Construct a node given the point, the associated value and its id.
+        public Node(Point2D p, Value val, int id) {
             this.p = p;
             this.val = val;
-            this.rect = rect;
+            this.id = id;
         }
     }
 
@@ -26,6 +43,30 @@ public class KdTreeST<Value> implements ST<Value> {
         // Initialize table variables.
         root = null;
         N = 0;
+        nodes = newNodes(1);
+        pq = new NeighborPQ(1);
+        shrink = 1.0;
+    }
+
+    // Construct an empty symbol table of points that, if aggregate is true,
+    // keeps the count, centroid, mean velocity and bounding box of every
+    // subtree for meanX() to meanVy() and farField(). These are summed in
+    // one pass on the first of those calls after a put.
+    public KdTreeST(boolean aggregate) {
+        this();
+        if (aggregate) {
+            count = new int[1];
+            sumX = new double[1];
+            sumY = new double[1];
+            sumVx = new double[1];
+            sumVy = new double[1];
+            minX = new double[1];
+            minY = new double[1];
+            maxX = new double[1];
+            maxY = new double[1];
+            velX = new double[1];
+            velY = new double[1];
+        }
     }
 
     // Return true if the symbol table is empty, and false otherwise.
@@ -42,59 +83,120 @@ public class KdTreeST<Value> implements ST<Value> {
 
     // Associate the value val with point p.
     public void put(Point2D p, Value val) {
+        // A point put without a velocity is at rest.
+        put(p, val, 0.0, 0.0);
+    }
+
+    // Associate the value val with point p, moving with velocity (vx, vy);
+    // the velocity only counts toward the aggregates.
+    public void put(Point2D p, Value val, double vx, double vy) {
         // Initialize helper variables.
         boolean lr = true;
-        double min = Double.NEGATIVE_INFINITY;
-        double max = Double.POSITIVE_INFINITY;
-        RectHV rect = new RectHV(min, min, max, max);
         // Delegate to Helper method.
-        root = put(root, p, val, rect, lr);
+        root = put(root, p, val, vx, vy, lr);
     }
 
-    // Helper for put(Point2D p, Value val).
-    private Node put(Node x, Point2D p, Value val, RectHV rect, boolean lr) {
+    // Helper for put(Point2D p, Value val, double vx, double vy).
+    private Node put(Node x, Point2D p, Value val, double vx, double vy,
+                     boolean lr) {
         // Traverse in order under null node is found.
         if (x == null) {
-            // Insert new node and update node count.
-            N++;
-            return new Node(p, val, rect);
+            // Insert new node, index it by id and update node count.
+            if (N == nodes.length) {
+                resize(2 * N);
+            }
+            nodes[N] = new Node(p, val, N);
+            if (count != null) {
+                velX[N] = vx;
+                velY[N] = vy;
+                aggregated = false;
+            }
+            return nodes[N++];
         }
         // Evaluate comparision for x or y coordinate.
-        if (lr) {
-            // Compute for x coordinate.
-            if (p.x() < x.p.x()) {
-                // Set new rectangle with appropriate bounds.
-                RectHV rectangle = new RectHV(rect.xmin(), rect.ymin(), 
-                                                x.p.x(), rect.ymax());
-                // Call put evaluation for left node.
-                x.lb  = put(x.lb,  p, val, rectangle, !lr);
-            } else {
-                // Set new rectangle with appropriate bounds.
-                RectHV rectangle = new RectHV(x.p.x(), rect.ymin(), 
-                                                rect.xmax(), rect.ymax());
-                // Call put evaluation for right node.
-                x.rt = put(x.rt, p, val, rectangle, !lr);
-            }
+        boolean lower = lr ? p.x() < x.p.x() : p.y() < x.p.y();
+        if (lower) {
+            // Call put evaluation for left/bottom node.
+            x.lb = put(x.lb, p, val, vx, vy, !lr);
         } else {
-            // Compute for y coordinate.
-            if (p.y() < x.p.y()) {
-                // Set new rectangle with appropriate bounds.
-                RectHV rectangle = new RectHV(rect.xmin(), rect.ymin(), 
-                                                rect.xmax(), x.p.y());
-                // Call put evaluation for right node.
-                x.lb  = put(x.lb,  p, val, rectangle, !lr);
-            } else {
-                // Set new rectangle with appropriate bounds.
-                RectHV rectangle = new RectHV(rect.xmin(), x.p.y(), 
-                                                rect.xmax(), rect.ymax());
-                // Call put evaluation for left node.
-                x.rt = put(x.rt, p, val, rectangle, !lr);
-            }
+            // Call put evaluation for right/top node.
+            x.rt = put(x.rt, p, val, vx, vy, !lr);
         }
         // Return current node to caller.
         return x;
     }
 
+    // Move the nodes, and the aggregates if kept, to arrays of the given
+    // capacity.
+    private void resize(int capacity) {
+        Node[] t = newNodes(capacity);
+        for (int i = 0; i < N; i++) {
+            t[i] = nodes[i];
+        }
+        nodes = t;
+        if (count != null) {
+            count = Arrays.copyOf(count, capacity);
+            sumX = Arrays.copyOf(sumX, capacity);
+            sumY = Arrays.copyOf(sumY, capacity);
+            sumVx = Arrays.copyOf(sumVx, capacity);
+            sumVy = Arrays.copyOf(sumVy, capacity);
+            minX = Arrays.copyOf(minX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+            velX = Arrays.copyOf(velX, capacity);
+            velY = Arrays.copyOf(velY, capacity);
+        }
+    }
+
+    // Return an array of nodes of the given length.
+    @SuppressWarnings("unchecked")
+    private Node[] newNodes(int capacity) {
+        return (Node[]) new KdTreeST<?>.Node[capacity];
+    }
+
+    // Sum the aggregates of every subtree unless they are up to date. A
+    // node's children were put after it, so going down the ids finishes
+    // both children before their parent. Safe to call from many threads.
+    private void aggregate() {
+        if (aggregated) {
+            return;
+        }
+        synchronized (this) {
+            if (aggregated) {
+                return;
+            }
+            for (int i = N - 1; i >= 0; i--) {
+                Node x = nodes[i];
+                count[i] = 1;
+                sumX[i] = minX[i] = maxX[i] = x.p.x();
+                sumY[i] = minY[i] = maxY[i] = x.p.y();
+                sumVx[i] = velX[i];
+                sumVy[i] = velY[i];
+                if (x.lb != null) {
+                    addChild(i, x.lb.id);
+                }
+                if (x.rt != null) {
+                    addChild(i, x.rt.id);
+                }
+            }
+            aggregated = true;
+        }
+    }
+
+    // Add the aggregates of subtree j to those of its parent i.
+    private void addChild(int i, int j) {
+        count[i] += count[j];
+        sumX[i] += sumX[j];
+        sumY[i] += sumY[j];
+        sumVx[i] += sumVx[j];
+        sumVy[i] += sumVy[j];
+        minX[i] = Math.min(minX[i], minX[j]);
+        minY[i] = Math.min(minY[i], minY[j]);
+        maxX[i] = Math.max(maxX[i], maxX[j]);
+        maxY[i] = Math.max(maxY[i], maxY[j]);
+    }
+
     // Return the value associated with point p.
     public Value get(Point2D p) {
         // Initialize level tracker.
@@ -180,31 +282,67 @@ public class KdTreeST<Value> implements ST<Value> {
     public Iterable<Point2D> range(RectHV rect) {
         // Initialize return queue.
         Queue<Point2D> q = new Queue<Point2D>();
-        // Delegate to helper method.
-        range(root, rect, q);
+        // Load the points of the ids inside the rectangle into the queue.
+        int[] ids = new int[N];
+        int n = rangeIndices(rect, ids);
+        for (int i = 0; i < n; i++) {
+            q.enqueue(nodes[ids[i]].p);
+        }
         // Return queue with all points inside rectangle.
         return q;
     }
 
-    // Helper for public range(RectHV rect).
-    private void range(Node x, RectHV rect, Queue<Point2D> q) {
+    // Write the numbers of the points inside the rectangle rect into out,
+    // which must have room for size() of them; return the number written.
+    public int rangeIndices(RectHV rect, int[] out) {
+        // Delegate to helper method, starting from the whole plane.
+        double min = Double.NEGATIVE_INFINITY;
+        double max = Double.POSITIVE_INFINITY;
+        return range(root, rect, out, 0, true, min, min, max, max);
+    }
+
+    // Helper for rangeIndices(RectHV rect, int[] out). Write the ids of the
+    // points of the subtree rooted at x inside rect into out from position
+    // n on, and return the position after the last. The rectangle
+    // corresponding to x is [xmin, xmax] x [ymin, ymax].
+    private int range(Node x, RectHV rect, int[] out, int n, boolean lr,
+                      double xmin, double ymin, double xmax, double ymax) {
         // Return if node is null.
         if (x == null) {
-            return;
+            return n;
         }
         // Evaluate if subtree is worth evaluation.
-        if (x.rect.intersects(rect)) {
-            // Enqueue point contained in rectangle.
+        if (rect.xmax() >= xmin && rect.ymax() >= ymin
+            && xmax >= rect.xmin() && ymax >= rect.ymin()) {
+            // Write id of point contained in rectangle.
             if (rect.contains(x.p)) {
-                q.enqueue(x.p);
+                out[n++] = x.id;
+            }
+            // Evaluate both subtrees, splitting the rectangle at the point.
+            if (lr) {
+                n = range(x.lb, rect, out, n, !lr, xmin, ymin, x.p.x(), ymax);
+                n = range(x.rt, rect, out, n, !lr, x.p.x(), ymin, xmax, ymax);
+            } else {
+                n = range(x.lb, rect, out, n, !lr, xmin, ymin, xmax, x.p.y());
+                n = range(x.rt, rect, out, n, !lr, xmin, x.p.y(), xmax, ymax);
             }
-            // Evaluate both subtrees.
-            range(x.lb, rect, q);
-            range(x.rt, rect, q);
-        } else {
-            // Return if subtree is not worth evaluation.
-            return;
         }
+        // Return the position after the last id written.
+        return n;
+    }
+
+    // Let the nearest queries be (1 + eps)-approximate: each point they
+    // return is at most 1 + eps times farther than the point it stands in
+    // for, and a subtree is skipped once its rectangle is farther than the
+    // current best candidate divided by 1 + eps. The default eps of 0 gives
+    // exact results.
+    public void setEpsilon(double eps) {
+        shrink = 1.0 / ((1.0 + eps) * (1.0 + eps));
+    }
+
+    // Return the number of nodes visited by the nearest queries so far.
+    public long nodesVisited() {
+        return visited;
     }
 
     // Return a nearest neighbor to point p; null if the symbol table is empty.
@@ -213,19 +351,24 @@ public class KdTreeST<Value> implements ST<Value> {
         if (root != null) {
             // Initialize helper variables.
             Point2D nearest = root.p;
-            double nearestDistance = p.distanceTo(nearest);
+            double nearestDistance = p.distanceSquaredTo(nearest);
+            double min = Double.NEGATIVE_INFINITY;
+            double max = Double.POSITIVE_INFINITY;
             boolean lr = true;
             // Delegate to helper method.
-            return nearest(root, p, nearest, nearestDistance, lr);
+            return nearest(root, p, nearest, nearestDistance, lr,
+                           min, min, max, max);
         } else {
             // Return null for empty symbol table.
             return null;
         }
     }
     
-    // Helper for public nearest(Point2D p).
+    // Helper for public nearest(Point2D p). The rectangle corresponding to
+    // x is [xmin, xmax] x [ymin, ymax].
     private Point2D nearest(Node x, Point2D p, Point2D nearest, 
-                            double nearestDistance, boolean lr) {
+                            double nearestDistance, boolean lr,
+                            double xmin, double ymin, double xmax, double ymax) {
         // Defensive copy.
         Point2D closest = nearest;
         double distance = nearestDistance;
@@ -233,40 +376,34 @@ public class KdTreeST<Value> implements ST<Value> {
         if (x == null) {
             return closest;
         }
+        visited++;
         // Update trackers if closer, account for query point returning itself.
-        if (p.distanceTo(x.p) < distance && !p.equals(x.p)) {
-            distance = p.distanceTo(x.p);
+        // Distances are compared squared, which orders them the same way.
+        double d = p.distanceSquaredTo(x.p);
+        if (d < distance && !p.equals(x.p)) {
+            distance = d;
             closest = x.p;
         }
         
         // Evaluate if subtree is worth evaluation.
-        if (x.rect.distanceTo(p) < distance) {
-            // Compute based on x/y coordinates.
-            if (lr) {
-                // Evaluate children based on level and relative point location.
-                if (p.x() < x.p.x()) {
-                    closest = nearest(x.lb, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                    closest = nearest(x.rt, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                } else {
-                    closest = nearest(x.rt, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                    closest = nearest(x.lb, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                }
+        if (distanceSquaredTo(p.x(), p.y(), xmin, ymin, xmax, ymax) < distance * shrink) {
+            // Split the rectangle at the point for the children.
+            double lbXmax = lr ? x.p.x() : xmax;
+            double lbYmax = lr ? ymax : x.p.y();
+            double rtXmin = lr ? x.p.x() : xmin;
+            double rtYmin = lr ? ymin : x.p.y();
+            // Evaluate children based on level and relative point location.
+            boolean lower = lr ? p.x() < x.p.x() : p.y() < x.p.y();
+            if (lower) {
+                closest = nearest(x.lb, p, closest, p.distanceSquaredTo(closest),
+                                  !lr, xmin, ymin, lbXmax, lbYmax);
+                closest = nearest(x.rt, p, closest, p.distanceSquaredTo(closest),
+                                  !lr, rtXmin, rtYmin, xmax, ymax);
             } else {
-                if (p.y() < x.p.y()) {
-                    closest = nearest(x.lb, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                    closest = nearest(x.rt, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                } else {
-                    closest = nearest(x.rt, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                    closest = nearest(x.lb, p, closest, 
-                                      p.distanceTo(closest), !lr);
-                }
+                closest = nearest(x.rt, p, closest, p.distanceSquaredTo(closest),
+                                  !lr, rtXmin, rtYmin, xmax, ymax);
+                closest = nearest(x.lb, p, closest, p.distanceSquaredTo(closest),
+                                  !lr, xmin, ymin, lbXmax, lbYmax);
             }
         }
         // Return closest point.
@@ -275,55 +412,302 @@ public class KdTreeST<Value> implements ST<Value> {
 
     // Return k points that are closest to point p.
     public Iterable<Point2D> nearest(Point2D p, int k) {
-        // Initialize return priority queue sorted distance to order.
-        MaxPQ<Point2D> pq = new MaxPQ<Point2D>(k, p.DISTANCE_TO_ORDER);
-        // Initialize helper method variables.
-        boolean lr = true;
-        // Delegate to helper method.
-        nearest(root, p, k, pq, lr);
+        // Delegate to the radius-capped search, with no cap.
+        return nearest(p, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Return the (at most) k points other than p closest to p that are
+    // within distance maxRadius of it, closest first.
+    public Iterable<Point2D> nearest(Point2D p, int k, double maxRadius) {
+        // Collect the ids of the k closest points inside the radius.
+        int n = search(p.x(), p.y(), k, maxRadius * maxRadius);
+        // Drain the heap so that the points come out closest first.
+        Point2D[] a = new Point2D[n];
+        for (int i = n - 1; i >= 0; i--) {
+            a[i] = nodes[pq.maxItem()].p;
+            pq.delMax();
+        }
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < n; i++) {
+            q.enqueue(a[i]);
+        }
         // Return k closest points.
-        return pq;
+        return q;
+    }
+
+    // Write the values of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearest(double x, double y, int k, Value[] out) {
+        int n = search(x, y, k);
+        for (int i = n - 1; i >= 0; i--) {
+            out[i] = nodes[pq.maxItem()].val;
+            pq.delMax();
+        }
+        return n;
+    }
+
+    // Write the numbers of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearestIndices(double x, double y, int k, int[] out) {
+        search(x, y, k);
+        return pq.drain(out, 0);
+    }
+
+    // Return all points other than p within distance r of p.
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        // Initialize return queue.
+        Queue<Point2D> q = new Queue<Point2D>();
+        // Delegate to helper method, starting from the whole plane.
+        double min = Double.NEGATIVE_INFINITY;
+        double max = Double.POSITIVE_INFINITY;
+        withinRadius(root, p.x(), p.y(), r * r, q, true, min, min, max, max);
+        // Return queue with all points inside the circle.
+        return q;
+    }
+
+    // Helper for public withinRadius(Point2D p, double r). Enqueue the
+    // points of the subtree rooted at x within squared distance r2 of
+    // (qx, qy). The rectangle corresponding to x is [xmin, xmax] x
+    // [ymin, ymax].
+    private void withinRadius(Node x, double qx, double qy, double r2,
+                              Queue<Point2D> q, boolean lr, double xmin,
+                              double ymin, double xmax, double ymax) {
+        // Return if node is null or its rectangle is outside the circle.
+        if (x == null || distanceSquaredTo(qx, qy, xmin, ymin, xmax, ymax) > r2) {
+            return;
+        }
+        // Enqueue point inside the circle, account for the query point.
+        double dx = x.p.x() - qx;
+        double dy = x.p.y() - qy;
+        if ((dx != 0.0 || dy != 0.0) && dx*dx + dy*dy <= r2) {
+            q.enqueue(x.p);
+        }
+        // Evaluate both subtrees, splitting the rectangle at the point.
+        if (lr) {
+            withinRadius(x.lb, qx, qy, r2, q, !lr, xmin, ymin, x.p.x(), ymax);
+            withinRadius(x.rt, qx, qy, r2, q, !lr, x.p.x(), ymin, xmax, ymax);
+        } else {
+            withinRadius(x.lb, qx, qy, r2, q, !lr, xmin, ymin, xmax, x.p.y());
+            withinRadius(x.rt, qx, qy, r2, q, !lr, xmin, x.p.y(), xmax, ymax);
+        }
+    }
+
+    // Collect the ids of the (at most) k points other than (x, y) closest
+    // to (x, y) in pq; return their number.
+    private int search(double x, double y, int k) {
+        return search(x, y, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Collect the ids of the (at most) k points other than (x, y) closest
+    // to (x, y) within squared distance maxKey in pq; return their number.
+    private int search(double x, double y, int k, double maxKey) {
+        pq.reset(k, maxKey);
+        double min = Double.NEGATIVE_INFINITY;
+        double max = Double.POSITIVE_INFINITY;
+        visited += nearest(root, x, y, pq, true, min, min, max, max);
+        return pq.size();
     }
 
-    // Helper for public nearest(Point2D p, int k).
-    private void nearest(Node x, Point2D p, int k, MaxPQ<Point2D> pq, 
-                         boolean lr) {
+    // Return the graph joining each point to the (at most) k other points
+    // closest to it. Rows are computed in parallel.
+    public NeighborGraph<Value> allNearest(int k) {
+        double[] xs = new double[N];
+        double[] ys = new double[N];
+        for (int i = 0; i < N; i++) {
+            xs[i] = nodes[i].p.x();
+            ys[i] = nodes[i].p.y();
+        }
+        return allNearest(xs, ys, k);
+    }
+
+    // Return the graph joining each query point (xs[i], ys[i]) to the (at
+    // most) k points other than itself closest to it. Rows are computed in
+    // parallel.
+    @SuppressWarnings("unchecked")
+    public NeighborGraph<Value> allNearest(final double[] xs,
+                                           final double[] ys, int k) {
+        // Initialize helper variables.
+        final int n = xs.length;
+        final int[] visits = new int[n];
+        Value[] vals = (Value[]) new Object[N];
+        for (int i = 0; i < N; i++) {
+            vals[i] = nodes[i].val;
+        }
+        final double min = Double.NEGATIVE_INFINITY;
+        final double max = Double.POSITIVE_INFINITY;
+        NeighborGraph<Value> graph = NeighborGraph.build(n, Math.min(k, N),
+            null, vals, new NeighborGraph.RowSearch() {
+                public int search(int i, NeighborPQ pq, int[] adjacent, int lo) {
+                    visits[i] = nearest(root, xs[i], ys[i],
+                                        pq, true, min, min, max, max);
+                    return pq.drain(adjacent, lo);
+                }
+            });
+        for (int i = 0; i < n; i++) {
+            visited += visits[i];
+        }
+        return graph;
+    }
+
+    // Helper for search(double x, double y, int k) and allNearest(int k).
+    // Offer the ids of the points in the subtree rooted at x to pq, keyed on
+    // squared distance to (qx, qy). The rectangle corresponding to x is
+    // [xmin, xmax] x [ymin, ymax]. Return the number of nodes visited.
+    private int nearest(Node x, double qx, double qy, NeighborPQ pq, boolean lr,
+                        double xmin, double ymin, double xmax, double ymax) {
         // Return to caller if node is null.
         if (x == null) {
-            return;
+            return 0;
         }
         // Account for query point returning itself.
-        if (!p.equals(x.p)) {
-            // Enqueue current point.
-            pq.insert(x.p);
-            // Remove furthest point from queue if k points are exceeded.
-            if (pq.size() > k) {
-                pq.delMax();
-            }
+        double dx = x.p.x() - qx;
+        double dy = x.p.y() - qy;
+        if (dx != 0.0 || dy != 0.0) {
+            pq.offer(dx*dx + dy*dy, x.id);
         }
-        // Evaluate if subtree is worth evaluation.
-        if (pq.size() < k || x.rect.distanceTo(p) < p.distanceTo(pq.max())) {
+        // Evaluate if subtree is worth evaluation. Only a full queue's bound
+        // is shrunk for approximate queries; a radius cap stays exact.
+        int n = 1;
+        double bound = pq.isFull() ? pq.bound() * shrink : pq.bound();
+        if (distanceSquaredTo(qx, qy, xmin, ymin, xmax, ymax) < bound) {
+            // Split the rectangle at the point for the children.
+            double lbXmax = lr ? x.p.x() : xmax;
+            double lbYmax = lr ? ymax : x.p.y();
+            double rtXmin = lr ? x.p.x() : xmin;
+            double rtYmin = lr ? ymin : x.p.y();
             // Evaluate children based on level and relative point location.
-            if (lr) {
-                if (p.x() < x.p.x()) {
-                    nearest(x.lb, p, k, pq, !lr);
-                    nearest(x.rt, p, k, pq, !lr);
-                } else {
-                    nearest(x.rt, p, k, pq, !lr);
-                    nearest(x.lb, p, k, pq, !lr);
-                }
+            boolean lower = lr ? qx < x.p.x() : qy < x.p.y();
+            if (lower) {
+                n += nearest(x.lb, qx, qy, pq, !lr, xmin, ymin, lbXmax, lbYmax);
+                n += nearest(x.rt, qx, qy, pq, !lr, rtXmin, rtYmin, xmax, ymax);
             } else {
-                if (p.y() < x.p.y()) {
-                    nearest(x.lb, p, k, pq, !lr);
-                    nearest(x.rt, p, k, pq, !lr);
-                } else {
-                    nearest(x.rt, p, k, pq, !lr);
-                    nearest(x.lb, p, k, pq, !lr);
-                }
+                n += nearest(x.rt, qx, qy, pq, !lr, rtXmin, rtYmin, xmax, ymax);
+                n += nearest(x.lb, qx, qy, pq, !lr, xmin, ymin, lbXmax, lbYmax);
             }
         }
-        // Return to caller.
-        return;
+        return n;
+    }
+
+    // Return the mean x-coordinate of all points, from the aggregate of the
+    // root; NaN if the symbol table is empty.
+    public double meanX() {
+        return mean(sumX);
+    }
+
+    // Return the mean y-coordinate of all points; NaN if empty.
+    public double meanY() {
+        return mean(sumY);
+    }
+
+    // Return the mean x-velocity of all points; NaN if empty.
+    public double meanVx() {
+        return mean(sumVx);
+    }
+
+    // Return the mean y-velocity of all points; NaN if empty.
+    public double meanVy() {
+        return mean(sumVy);
+    }
+
+    // Return the mean of the given sums over the whole tree.
+    private double mean(double[] sum) {
+        if (count == null) {
+            throw new UnsupportedOperationException("Aggregates are not kept");
+        }
+        if (root == null) {
+            return Double.NaN;
+        }
+        aggregate();
+        return sum[root.id] / count[root.id];
+    }
+
+    // Approximate the far field of the points other than (x, y) at (x, y):
+    // the sum of their weights and their weighted mean position and
+    // velocity, each point weighted by the inverse of its distance to
+    // (x, y), so that distant groups of points still count. These are
+    // written to out[0] to out[4]; the means are NaN if there are no other
+    // points. Like Barnes-Hut, a subtree whose bounding box is smaller than
+    // theta times its distance from (x, y) is summed as its count of points
+    // at its centroid with its mean velocity, so a theta of 0.5 to 1 sums
+    // O(log N) terms, within a few percent, and a theta of 0 sums every
+    // point exactly.
+    // Return the number of points and subtrees summed.
+    public int farField(double x, double y, double theta, double[] out) {
+        if (count == null) {
+            throw new UnsupportedOperationException("Aggregates are not kept");
+        }
+        aggregate();
+        for (int i = 0; i < 5; i++) {
+            out[i] = 0.0;
+        }
+        int terms = farField(root, x, y, theta * theta, out);
+        for (int i = 1; i < 5; i++) {
+            out[i] /= out[0];
+        }
+        return terms;
+    }
+
+    // Helper for farField(double x, double y, double theta, double[] out).
+    // Add the weighted sums of the subtree rooted at x to out; return the
+    // number of terms added.
+    private int farField(Node x, double qx, double qy, double theta2,
+                         double[] out) {
+        if (x == null) {
+            return 0;
+        }
+        int i = x.id;
+        double n = count[i];
+        double cx = sumX[i] / n;
+        double cy = sumY[i] / n;
+        double dx = cx - qx;
+        double dy = cy - qy;
+        double d2 = dx*dx + dy*dy;
+        double size = Math.max(maxX[i] - minX[i], maxY[i] - minY[i]);
+        // Sum a subtree that looks small from outside its bounding box as
+        // a whole.
+        boolean outside = qx < minX[i] || qx > maxX[i]
+                       || qy < minY[i] || qy > maxY[i];
+        if (outside && size * size < theta2 * d2) {
+            add(out, n / Math.sqrt(d2), cx, cy, sumVx[i] / n, sumVy[i] / n);
+            return 1;
+        }
+        // Otherwise add the point itself, unless it is the query point, and
+        // open both subtrees.
+        int terms = 0;
+        dx = x.p.x() - qx;
+        dy = x.p.y() - qy;
+        if (dx != 0.0 || dy != 0.0) {
+            add(out, 1.0 / Math.sqrt(dx*dx + dy*dy), x.p.x(), x.p.y(),
+                velX[i], velY[i]);
+            terms++;
+        }
+        terms += farField(x.lb, qx, qy, theta2, out);
+        terms += farField(x.rt, qx, qy, theta2, out);
+        return terms;
+    }
+
+    // Add a term of weight w at (x, y) with velocity (vx, vy) to the
+    // weighted sums in out.
+    private static void add(double[] out, double w, double x, double y,
+                            double vx, double vy) {
+        out[0] += w;
+        out[1] += w * x;
+        out[2] += w * y;
+        out[3] += w * vx;
+        out[4] += w * vy;
+    }
+
+    // Return the squared distance from (x, y) to the closest point of the
+    // rectangle [xmin, xmax] x [ymin, ymax].
+    private static double distanceSquaredTo(double x, double y,
+                                            double xmin, double ymin,
+                                            double xmax, double ymax) {
+        double dx = 0.0, dy = 0.0;
+        if      (x < xmin) dx = x - xmin;
+        else if (x > xmax) dx = x - xmax;
+        if      (y < ymin) dy = y - ymin;
+        else if (y > ymax) dy = y - ymax;
+        return dx*dx + dy*dy;
     }
 
     // Test client. [DO NOT EDIT]
@@ -1,7 +1,8 @@
 /*************************************************************************
  *  Compilation:  javac NearestNeighborVisualizer.java
- *  Execution:    java NearestNeighborVisualizer <input> <k>
- *  Dependencies: PointST.java KdTreeST.java Point2D.java In.java StdDraw.java
+ *  Execution:    java NearestNeighborVisualizer <input> <k> [kdtree|flat|grid|scan|brute]
+ *  Dependencies: PointST.java KdTreeST.java FlatKdTreeST.java HashGridST.java
+ *                ScanST.java Point2D.java In.java StdDraw.java
  *
  *  Read points from a file (specified as the first command-line argument) and
  *  draw to standard draw. Highlight the k (specified as the second 
@@ -9,6 +10,8 @@
  *
  *  The nearest neighbors according to the brute-force algorithm are drawn
  *  in red; the nearest neighbors using the kd-tree algorithm are drawn in blue.
+ *  An optional third command-line argument selects another data type to
+ *  draw in blue instead of the kd-tree.
  *
  *************************************************************************/
 
@@ -17,18 +20,24 @@ public class NearestNeighborVisualizer {
     public static void main(String[] args) {
         String filename = args[0];
         int k = Integer.parseInt(args[1]);
+        String type = args.length > 2 ? args[2] : "kdtree";
         In in = new In(filename);
 
         StdDraw.show(0);
 
         // initialize the two data structures with point from standard input
         PointST<Integer> brute = new PointST<Integer>();
-        KdTreeST<Integer> kdtree = new KdTreeST<Integer>();
+        ST<Integer> st;
+        if      (type.equals("brute")) st = new PointST<Integer>();
+        else if (type.equals("flat"))  st = new FlatKdTreeST<Integer>();
+        else if (type.equals("grid"))  st = new HashGridST<Integer>();
+        else if (type.equals("scan"))  st = new ScanST<Integer>();
+        else                           st = new KdTreeST<Integer>();
         for (int i = 0; !in.isEmpty(); i++) {
             double x = in.readDouble();
             double y = in.readDouble();
             Point2D p = new Point2D(x, y);
-            kdtree.put(p, i);
+            st.put(p, i);
             brute.put(p, i);
         }
 
@@ -58,14 +67,14 @@ public class NearestNeighborVisualizer {
                     p.draw();
             StdDraw.setPenRadius(.02);
 
-            // draw in blue the k nearest neighbors according to the kd-tree algorithm
+            // draw in blue the k nearest neighbors according to the selected data type
             StdDraw.setPenColor(StdDraw.BLUE);
             if (k == 1) {
-                Point2D p = kdtree.nearest(query);
+                Point2D p = st.nearest(query);
                 p.draw();
             }
             else 
-                for (Point2D p : kdtree.nearest(query, k))
+                for (Point2D p : st.nearest(query, k))
                     p.draw();
             StdDraw.show(0);
             StdDraw.show(40);
@@ -0,0 +1,142 @@
+/*************************************************************************
+ *  Compilation:  javac NeighborGraph.java
+ *  Dependencies: NeighborPQ.java ParallelFor.java
+ *
+ *  The k-nearest-neighbor graph of the points in a symbol table, in
+ *  compressed sparse row (CSR) layout.
+ *
+ *  Point i is the i-th distinct point put into the symbol table. Its
+ *  neighbors are stored closest first in one shared int[] adjacency array,
+ *  at positions offsets[i] to offsets[i+1] - 1, so the whole graph is
+ *  three arrays no matter how many points it covers.
+ *
+ *  A graph of outside query points has a row for each query instead, and
+ *  its neighbor indices still number the points of the symbol table, so
+ *  value() of a neighbor index is the value of that point.
+ *
+ *  The symbol tables build their graphs with build(), which searches the
+ *  rows in parallel, each thread with a NeighborPQ of its own. A point is
+ *  never its own neighbor, and a query point that is also in the symbol
+ *  table skips itself and its duplicates, so a row can come up short of
+ *  the degree asked for. Rows are therefore first filled at a fixed
+ *  stride and counted, and once a row comes up short, the rows after it
+ *  are moved down to close the gap.
+ *
+ *************************************************************************/
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class NeighborGraph<Value> {
+    private final int[] offsets;   // row i is adjacent[offsets[i]..offsets[i+1])
+    private final int[] adjacent;  // neighbor indices, closest first per row
+    private final Value[] vals;    // value of each point
+
+    // Construct a graph from its CSR arrays and the value of each point.
+    public NeighborGraph(int[] offsets, int[] adjacent, Value[] vals) {
+        this.offsets = offsets;
+        this.adjacent = adjacent;
+        this.vals = vals;
+    }
+
+    // A search for the neighbors of one row, run for many rows at once on
+    // different threads.
+    public interface RowSearch {
+        // Find the neighbors of row i with pq, which is empty and holds at
+        // most the degree of the graph, and write their numbers closest
+        // first into adjacent from position lo; return the number written.
+        public int search(int i, NeighborPQ pq, int[] adjacent, int lo);
+    }
+
+    // Return the graph of n rows of at most degree neighbors each, whose
+    // points have the values vals, with row i found by search. Rows are
+    // searched in parallel, in the given order, so that consecutive
+    // searches can touch the same data, or from 0 to n - 1 if order is
+    // null.
+    public static <Value> NeighborGraph<Value> build(int n, int degree,
+                                                     final int[] order,
+                                                     Value[] vals,
+                                                     final RowSearch search) {
+        final int stride = Math.max(degree, 0);
+        final int[] adjacent = new int[n * stride];
+        final int[] degrees = new int[n];
+        if (stride > 0) {
+            ParallelFor.run(n, new ParallelFor.Body() {
+                public void run(int lo, int hi) {
+                    NeighborPQ pq = new NeighborPQ(stride);
+                    for (int t = lo; t < hi; t++) {
+                        int i = order == null ? t : order[t];
+                        pq.reset(stride);
+                        degrees[i] = search.search(i, pq, adjacent, i * stride);
+                    }
+                }
+            });
+        }
+        // Close the gaps left by short rows.
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + degrees[i];
+            if (offsets[i] == i * stride) continue;
+            for (int j = 0; j < degrees[i]; j++) {
+                adjacent[offsets[i] + j] = adjacent[i * stride + j];
+            }
+        }
+        return new NeighborGraph<Value>(offsets, adjacent, vals);
+    }
+
+    // Return the number of points in the graph.
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    // Return the number of neighbors of point i.
+    public int degree(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    // Return the index of the j-th closest neighbor of point i.
+    public int neighbor(int i, int j) {
+        return adjacent[offsets[i] + j];
+    }
+
+    // Return the value of point i.
+    public Value value(int i) {
+        return vals[i];
+    }
+
+    // Return the values of the neighbors of point i, closest first.
+    public Iterable<Value> neighbors(int i) {
+        return neighbors(i, vals);
+    }
+
+    // Return the entries of items at the indices of the neighbors of point
+    // i, closest first; for example, a frozen copy of the values.
+    public <Item> Iterable<Item> neighbors(final int i, final Item[] items) {
+        return new Iterable<Item>() {
+            public Iterator<Item> iterator() {
+                return new RowIterator<Item>(offsets[i], offsets[i + 1], items);
+            }
+        };
+    }
+
+    // an iterator over the items indexed by one row of the adjacency array
+    private class RowIterator<Item> implements Iterator<Item> {
+        private int current;         // position of the next neighbor
+        private final int hi;        // end of the row
+        private final Item[] items;  // the items to look up
+
+        public RowIterator(int lo, int hi, Item[] items) {
+            this.current = lo;
+            this.hi = hi;
+            this.items = items;
+        }
+
+        public boolean hasNext()  { return current < hi;                      }
+        public void remove()      { throw new UnsupportedOperationException(); }
+
+        public Item next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return items[adjacent[current++]];
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*************************************************************************
+ *  Compilation:  javac NeighborPQ.java
+ *
+ *  Bounded max priority queue of integer items keyed on squared distance,
+ *  used to collect the k nearest neighbors of a query point.
+ *
+ *  Keys and items live in parallel primitive arrays, so offering a
+ *  candidate costs no comparator call, no square root and no allocation.
+ *  Once k candidates are held, offering a closer one replaces the
+ *  furthest, and bound() gives the squared distance a subtree must beat
+ *  to be worth visiting. A queue can also be capped at a maximum key, so
+ *  that a search within a radius prunes by the radius from the start.
+ *
+ *************************************************************************/
+
+public class NeighborPQ {
+    private double[] keys; // squared distances, in heap order
+    private int[] items;   // items associated with the keys
+    private int N;         // number of candidates held
+    private int k;         // number of candidates wanted
+    private double limit;  // keys must be below the limit to be kept
+
+    // Construct an empty queue wanting k candidates.
+    public NeighborPQ(int k) {
+        keys = new double[Math.max(k, 1)];
+        items = new int[Math.max(k, 1)];
+        this.k = k;
+        limit = Double.POSITIVE_INFINITY;
+        N = 0;
+    }
+
+    // Empty the queue and make it want k candidates.
+    public void reset(int k) {
+        reset(k, Double.POSITIVE_INFINITY);
+    }
+
+    // Empty the queue and make it want k candidates with keys no larger
+    // than maxKey.
+    public void reset(int k, double maxKey) {
+        if (keys.length < k) {
+            keys = new double[k];
+            items = new int[k];
+        }
+        this.k = k;
+        limit = Math.nextUp(maxKey);
+        N = 0;
+    }
+
+    // Return the number of candidates held.
+    public int size() {
+        return N;
+    }
+
+    // Return true if k candidates are held, and false otherwise.
+    public boolean isFull() {
+        return N >= k;
+    }
+
+    // Return the squared distance a candidate must beat to be kept: the
+    // largest key once the queue is full, and just above the maximum key
+    // before.
+    public double bound() {
+        if (N < k) {
+            return limit;
+        }
+        return keys[0];
+    }
+
+    // Return the largest key.
+    public double maxKey() {
+        return keys[0];
+    }
+
+    // Return the item with the largest key.
+    public int maxItem() {
+        return items[0];
+    }
+
+    // Offer item at squared distance d.
+    public void offer(double d, int item) {
+        if (N < k) {
+            if (d >= limit) return;
+            // Append and swim up.
+            int c = N++;
+            while (c > 0) {
+                int parent = (c - 1) / 2;
+                if (keys[parent] >= d) break;
+                keys[c] = keys[parent];
+                items[c] = items[parent];
+                c = parent;
+            }
+            keys[c] = d;
+            items[c] = item;
+        } else if (k > 0 && d < keys[0]) {
+            // Replace the furthest candidate and sink down.
+            sink(d, item);
+        }
+    }
+
+    // Remove the candidate with the largest key.
+    public void delMax() {
+        N--;
+        if (N > 0) {
+            sink(keys[N], items[N]);
+        }
+    }
+
+    // Remove every candidate, writing the items to a[lo], a[lo+1], ...
+    // closest first; return the number written.
+    public int drain(int[] a, int lo) {
+        int n = N;
+        for (int j = lo + n - 1; j >= lo; j--) {
+            a[j] = items[0];
+            delMax();
+        }
+        return n;
+    }
+
+    // Place (d, item) at the root and sink it to restore heap order.
+    private void sink(double d, int item) {
+        int c = 0;
+        while (2*c + 1 < N) {
+            int child = 2*c + 1;
+            if (child + 1 < N && keys[child + 1] > keys[child]) {
+                child++;
+            }
+            if (keys[child] <= d) break;
+            keys[c] = keys[child];
+            items[c] = items[child];
+            c = child;
+        }
+        keys[c] = d;
+        items[c] = item;
+    }
+}
@@ -0,0 +1,66 @@
+/*************************************************************************
+ *  Compilation:  javac ParallelFor.java
+ *
+ *  Runs a loop body over the indices 0 to n-1 on the fork/join pool.
+ *
+ *  The index range is split in halves until at most GRAIN indices (or a
+ *  given grain) remain, and each piece is handed to body.run(lo, hi).
+ *  Pieces never overlap, so a body that reads shared state and writes
+ *  only to its own indices needs no locking and computes the same result
+ *  on any number of threads. The calling thread works on the first piece
+ *  while the others are stolen by the common pool, so all cores take part.
+ *
+ *************************************************************************/
+
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelFor {
+    private static final int GRAIN = 256; // max indices in a sequential piece
+
+    // A loop body over a range of indices.
+    public interface Body {
+        // Run the loop body for the indices lo to hi - 1.
+        public void run(int lo, int hi);
+    }
+
+    // Run body over the indices 0 to n-1, in parallel.
+    public static void run(int n, Body body) {
+        run(n, GRAIN, body);
+    }
+
+    // Run body over the indices 0 to n-1, in parallel, in pieces of at
+    // most grain indices; for bodies whose indices are costly themselves.
+    public static void run(int n, int grain, Body body) {
+        if (n <= grain) {
+            body.run(0, n);
+        } else {
+            new Range(0, n, grain, body).invoke();
+        }
+    }
+
+    // a range of indices to split or run
+    private static class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo, hi;  // the indices lo to hi - 1
+        private final int grain;   // max indices in a sequential piece
+        private final Body body;   // the loop body
+
+        public Range(int lo, int hi, int grain, Body body) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        protected void compute() {
+            if (hi - lo <= grain) {
+                body.run(lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Range(lo, mid, grain, body),
+                      new Range(mid, hi, grain, body));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*************************************************************************
+ *  Compilation:  javac PixelRenderer.java
+ *  Dependencies: ParallelFor.java
+ *
+ *  A window that shows an image rasterized straight into an int[] of
+ *  pixels, for drawing many points per frame.
+ *
+ *  StdDraw draws every point as a Java2D shape. A PixelRenderer instead
+ *  maps each point to the pixels of a small square and writes its color
+ *  into the int[] that backs a BufferedImage, which show() then copies to
+ *  the window in one blit. Points can also be rasterized in parallel:
+ *  their pixels are computed on all cores, the squares are bucketed by
+ *  the horizontal tiles of the image they overlap, and each tile is then
+ *  filled by one task from its own bucket, so the tasks never write the
+ *  same pixel and the image is the same as a sequential one.
+ *
+ *  The window keeps track of the keys held down, like StdDraw does for
+ *  its own window.
+ *
+ *************************************************************************/
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+
+public class PixelRenderer {
+    private static final int TILE = 32;  // rows per tile when in parallel
+
+    private final int width, height;    // size of the image, in pixels
+    private final BufferedImage back;   // the image being drawn
+    private final int[] pixels;         // the pixels of back, row by row
+    private final BufferedImage front;  // the image last shown
+    private final int[] shown;          // the pixels of front
+    private final JComponent canvas;    // the component that paints front
+    private final Set<Integer> keys;    // the keys held down
+
+    // the scale from user coordinates to pixels
+    private double xmin, ymin, xscale, yscale;
+
+    // the top left pixel of each square of the last call to points(), and
+    // the squares in order of the tiles they overlap: those of tile t are
+    // order[first[t]] to order[first[t + 1] - 1]
+    private int[] rows = new int[0], cols = new int[0];
+    private int[] order = new int[0];
+    private final int[] first;
+
+    // Open a window showing a blank image of the given size in pixels,
+    // with user coordinates from 0 to 1 in both directions.
+    public PixelRenderer(int width, int height, String title) {
+        this.width = width;
+        this.height = height;
+        back = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) back.getRaster().getDataBuffer()).getData();
+        front = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        shown = ((DataBufferInt) front.getRaster().getDataBuffer()).getData();
+        keys = new HashSet<Integer>();
+        first = new int[(height + TILE - 1) / TILE + 1];
+        setScale(0.0, 1.0, 0.0, 1.0);
+
+        canvas = new JComponent() {
+            protected void paintComponent(Graphics g) {
+                synchronized (front) {
+                    g.drawImage(front, 0, 0, null);
+                }
+            }
+        };
+        canvas.setPreferredSize(new Dimension(width, height));
+        JFrame frame = new JFrame(title);
+        frame.setContentPane(canvas);
+        frame.setResizable(false);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                synchronized (keys) { keys.add(e.getKeyCode()); }
+            }
+            public void keyReleased(KeyEvent e) {
+                synchronized (keys) { keys.remove(e.getKeyCode()); }
+            }
+        });
+        frame.pack();
+        frame.setVisible(true);
+    }
+
+    // Set the user coordinates shown to [xmin, xmax] x [ymin, ymax].
+    public void setScale(double xmin, double xmax, double ymin, double ymax) {
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.xscale = width / (xmax - xmin);
+        this.yscale = height / (ymax - ymin);
+    }
+
+    // Is the key with the given code held down?
+    public boolean isKeyPressed(int keycode) {
+        synchronized (keys) {
+            return keys.contains(keycode);
+        }
+    }
+
+    // Fill the image with the given RGB color.
+    public void clear(int rgb) {
+        Arrays.fill(pixels, rgb);
+    }
+
+    // Return the column of the pixel containing x, clamped to a few pixels
+    // outside the image.
+    private int column(double x) {
+        double c = Math.floor((x - xmin) * xscale);
+        return (int) Math.max(-TILE, Math.min(width + TILE, c));
+    }
+
+    // Return the row of the pixel containing y, clamped to a few pixels
+    // outside the image; row 0 is at the top.
+    private int row(double y) {
+        double r = height - 1 - Math.floor((y - ymin) * yscale);
+        return (int) Math.max(-TILE, Math.min(height + TILE, r));
+    }
+
+    // Draw the point (x, y) as a square of size pixels in the given color.
+    public void point(double x, double y, int rgb, int size) {
+        int col = column(x) - size / 2;
+        int row = row(y) - size / 2;
+        for (int r = Math.max(row, 0); r < Math.min(row + size, height); r++) {
+            for (int c = Math.max(col, 0); c < Math.min(col + size, width); c++) {
+                pixels[r * width + c] = rgb;
+            }
+        }
+    }
+
+    // Fill the rectangle [xmin, xmax) x [ymin, ymax) with the given color.
+    public void filledRectangle(double xmin, double ymin, double xmax, double ymax, int rgb) {
+        int left = Math.max(column(xmin), 0);
+        int right = Math.min(column(xmax), width);
+        int top = Math.max(row(ymax) + 1, 0);
+        int bottom = Math.min(row(ymin) + 1, height);
+        for (int r = top; r < bottom; r++) {
+            Arrays.fill(pixels, r * width + left, r * width + Math.max(left, right), rgb);
+        }
+    }
+
+    // Draw a line one pixel wide from (x0, y0) to (x1, y1) in the given
+    // color.
+    public void line(double x0, double y0, double x1, double y1, int rgb) {
+        int c0 = column(x0), r0 = row(y0);
+        int c1 = column(x1), r1 = row(y1);
+        int steps = Math.max(Math.abs(c1 - c0), Math.abs(r1 - r0));
+        for (int i = 0; i <= steps; i++) {
+            int c = c0 + (int) Math.round((c1 - c0) * (double) i / Math.max(steps, 1));
+            int r = r0 + (int) Math.round((r1 - r0) * (double) i / Math.max(steps, 1));
+            if (c >= 0 && c < width && r >= 0 && r < height) {
+                pixels[r * width + c] = rgb;
+            }
+        }
+    }
+
+    // Draw the points (x[i], y[i]) for i from 0 to n - 1 as squares of
+    // size pixels in the given color, on all cores if parallel is true.
+    public void points(final double[] x, final double[] y, final int n,
+                       final int rgb, final int size, boolean parallel) {
+        if (!parallel) {
+            for (int i = 0; i < n; i++) {
+                point(x[i], y[i], rgb, size);
+            }
+            return;
+        }
+
+        // Find the top left pixel of every square.
+        if (rows.length < n) {
+            rows = new int[n];
+            cols = new int[n];
+        }
+        final int[] rows = this.rows;
+        final int[] cols = this.cols;
+        ParallelFor.run(n, new ParallelFor.Body() {
+            public void run(int lo, int hi) {
+                for (int i = lo; i < hi; i++) {
+                    cols[i] = column(x[i]) - size / 2;
+                    rows[i] = row(y[i]) - size / 2;
+                }
+            }
+        });
+
+        // Bucket the visible squares by the tiles they overlap, counting
+        // first, then placing each square in its tiles' part of order.
+        final int tiles = first.length - 1;
+        Arrays.fill(first, 0);
+        for (int i = 0; i < n; i++) {
+            if (cols[i] + size <= 0 || cols[i] >= width) continue;
+            int top = Math.max(rows[i], 0);
+            int bottom = Math.min(rows[i] + size, height);
+            for (int t = top / TILE; top < bottom && t <= (bottom - 1) / TILE; t++) {
+                first[t + 1]++;
+            }
+        }
+        for (int t = 0; t < tiles; t++) {
+            first[t + 1] += first[t];
+        }
+        if (order.length < first[tiles]) {
+            order = new int[first[tiles]];
+        }
+        int[] next = Arrays.copyOf(first, tiles);
+        for (int i = 0; i < n; i++) {
+            if (cols[i] + size <= 0 || cols[i] >= width) continue;
+            int top = Math.max(rows[i], 0);
+            int bottom = Math.min(rows[i] + size, height);
+            for (int t = top / TILE; top < bottom && t <= (bottom - 1) / TILE; t++) {
+                order[next[t]++] = i;
+            }
+        }
+
+        // Fill the tiles, each from its own squares.
+        final int[] order = this.order;
+        ParallelFor.run(tiles, 1, new ParallelFor.Body() {
+            public void run(int lo, int hi) {
+                for (int t = lo; t < hi; t++) {
+                    int top = t * TILE;
+                    int bottom = Math.min(top + TILE, height);
+                    for (int j = first[t]; j < first[t + 1]; j++) {
+                        int row = rows[order[j]];
+                        int col = cols[order[j]];
+                        for (int r = Math.max(row, top); r < Math.min(row + size, bottom); r++) {
+                            for (int c = Math.max(col, 0); c < Math.min(col + size, width); c++) {
+                                pixels[r * width + c] = rgb;
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    // Write text with its left end at (x, y) in the given color.
+    public void textLeft(double x, double y, String s, int rgb) {
+        Graphics2D g = back.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                           RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        g.setColor(new java.awt.Color(rgb));
+        g.drawString(s, column(x), row(y) + g.getFontMetrics().getAscent() / 2);
+        g.dispose();
+    }
+
+    // Copy the image to the window, then pause for t milliseconds.
+    public void show(int t) {
+        synchronized (front) {
+            System.arraycopy(pixels, 0, shown, 0, pixels.length);
+        }
+        canvas.repaint();
+        try {
+            Thread.sleep(t);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
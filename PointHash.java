@@ -0,0 +1,92 @@
+/*************************************************************************
+ *  Compilation:  javac PointHash.java
+ *
+ *  Open-addressing hash table from the coordinates of a point to its
+ *  index in a pair of coordinate arrays, used by the symbol tables that
+ *  keep their points in insertion order.
+ *
+ *  The table holds index + 1 in each used slot and probes linearly, so a
+ *  lookup is a few int reads and double comparisons and allocates
+ *  nothing. The coordinates themselves stay in the caller's arrays, which
+ *  are passed to every operation, so that the caller is free to grow them.
+ *  Deleting leaves a marker that probes go on past, and that a later
+ *  insert may reuse; once markers fill a quarter of the table, the caller
+ *  should rehash it.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+
+public class PointHash {
+    private int[] table;  // index + 1 of a point; 0 if empty, -1 if deleted
+    private int deleted;  // number of deleted slots
+
+    // Construct an empty table with room for capacity points.
+    public PointHash(int capacity) {
+        table = new int[2 * capacity];
+    }
+
+    // Return the index of point (x, y) in xs and ys, or -1 if it is absent.
+    public int indexOf(double[] xs, double[] ys, double x, double y) {
+        int h = hash(x, y);
+        while (table[h] != 0) {
+            int i = table[h] - 1;
+            if (i >= 0 && xs[i] == x && ys[i] == y) {
+                return i;
+            }
+            h = (h + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    // Insert index i, which must not be in the table, reusing the first
+    // deleted slot on the way.
+    public void insert(double[] xs, double[] ys, int i) {
+        int h = hash(xs[i], ys[i]);
+        while (table[h] > 0) {
+            h = (h + 1) & (table.length - 1);
+        }
+        if (table[h] < 0) {
+            deleted--;
+        }
+        table[h] = i + 1;
+    }
+
+    // Delete index i, at the coordinates it was inserted with.
+    public void delete(double[] xs, double[] ys, int i) {
+        int h = hash(xs[i], ys[i]);
+        while (table[h] != i + 1) {
+            h = (h + 1) & (table.length - 1);
+        }
+        table[h] = -1;
+        deleted++;
+    }
+
+    // Do deleted slots fill a quarter of the table?
+    public boolean isCrowded() {
+        return 4 * deleted > table.length;
+    }
+
+    // Empty the table, make room for capacity points and insert the
+    // indices 0 to n - 1.
+    public void rehash(double[] xs, double[] ys, int n, int capacity) {
+        if (table.length == 2 * capacity) {
+            Arrays.fill(table, 0);
+        } else {
+            table = new int[2 * capacity];
+        }
+        deleted = 0;
+        for (int i = 0; i < n; i++) {
+            insert(xs, ys, i);
+        }
+    }
+
+    // Hash point (x, y) to a slot of the table.
+    private int hash(double x, double y) {
+        long bx = Double.doubleToLongBits(x);
+        long by = Double.doubleToLongBits(y);
+        int h = 31 * (int) (bx ^ (bx >>> 32)) + (int) (by ^ (by >>> 32));
+        h ^= (h >>> 16);
+        return h & (table.length - 1);
+    }
+}
@@ -1,11 +1,34 @@
 public class PointST<Value> implements ST<Value> {
-    private RedBlackBST<Point2D, Value> bst; // the symbol table represented 
-                                             // as a red-black BST.
+    private RedBlackBST<Point2D, Integer> bst; // the symbol table represented 
+                                               // as a red-black BST, mapping
+                                               // each point to its index.
+    private Point2D[] keys; // the points, in insertion order
+    private Value[] vals;   // the values, in insertion order
+    private NeighborPQ pq;  // the closest candidates of the current query
+
+    // With sweep, nearest queries sweep outward in y from the query instead
+    // of comparing against every point.
+    private final boolean sweep;
+    private int[] byY;      // indices of the points in the BST's order
+    private boolean sorted; // is byY consistent with the points?
 
     // Construct an empty symbol table of points.
     public PointST() {
-        // Initialize BST.
-        bst = new RedBlackBST<Point2D, Value>();
+        this(false);
+    }
+
+    // Construct an empty symbol table of points whose nearest queries
+    // sweep outward in y if sweep is true, or else compare against every
+    // point.
+    public PointST(boolean sweep) {
+        // Initialize BST and arrays.
+        bst = new RedBlackBST<Point2D, Integer>();
+        keys = new Point2D[1];
+        vals = (Value[]) new Object[1];
+        pq = new NeighborPQ(1);
+        this.sweep = sweep;
+        byY = new int[0];
+        sorted = true;
     }
 
     // Return true if the symbol table is empty, and false otherwise.
@@ -22,14 +45,44 @@ public class PointST<Value> implements ST<Value> {
 
     // Associate the value val with point p.
     public void put(Point2D p, Value val) {
-        // Insert point and value into BST.
-        bst.put(p, val);
+        // Replace the value if the point is already present.
+        Integer i = bst.get(p);
+        if (i != null) {
+            vals[i] = val;
+            return;
+        }
+        // Double the arrays if they are full.
+        int n = bst.size();
+        if (n == keys.length) {
+            resize(2 * n);
+        }
+        // Append point and value, and index the point in the BST.
+        keys[n] = p;
+        vals[n] = val;
+        bst.put(p, n);
+        sorted = false;
+    }
+
+    // Move the points and values to arrays of the given capacity.
+    private void resize(int capacity) {
+        Point2D[] tk = new Point2D[capacity];
+        Value[] tv = (Value[]) new Object[capacity];
+        for (int i = 0; i < bst.size(); i++) {
+            tk[i] = keys[i];
+            tv[i] = vals[i];
+        }
+        keys = tk;
+        vals = tv;
     }
 
     // Return the value associated with point p.
     public Value get(Point2D p) {
-       // Return value of point from BST.
-       return bst.get(p);
+       // Look up the index of the point in the BST.
+       Integer i = bst.get(p);
+       if (i == null) {
+           return null;
+       }
+       return vals[i];
     }
 
     // Return true if the symbol table contains the point p, and false 
@@ -49,8 +102,12 @@ public class PointST<Value> implements ST<Value> {
     public Iterable<Point2D> range(RectHV rect) {
         // Declare iterable return queue.
         Queue<Point2D> q = new Queue<Point2D>();
-        // Load all keys from BST into queue.
-        for (Point2D x : bst.keys()) {
+        // Points are ordered by y, then x, so the keys between the lower
+        // left and upper right corners are those in the rectangle's y-band;
+        // load those whose x-coordinate is also in range into queue.
+        Point2D lo = new Point2D(rect.xmin(), rect.ymin());
+        Point2D hi = new Point2D(rect.xmax(), rect.ymax());
+        for (Point2D x : bst.keys(lo, hi)) {
             if (rect.contains(x)) {
                 q.enqueue(x);
             }
@@ -59,49 +116,202 @@ public class PointST<Value> implements ST<Value> {
         return q;
     }
 
+    // Write the numbers of the points inside the rectangle rect into out,
+    // which must have room for size() of them; return the number written.
+    public int rangeIndices(RectHV rect, int[] out) {
+        // Look up the index of each point of the rectangle's y-band that is
+        // also in range in x.
+        Point2D lo = new Point2D(rect.xmin(), rect.ymin());
+        Point2D hi = new Point2D(rect.xmax(), rect.ymax());
+        int n = 0;
+        for (Point2D x : bst.keys(lo, hi)) {
+            if (rect.contains(x)) {
+                out[n++] = bst.get(x);
+            }
+        }
+        return n;
+    }
+
     // Return a nearest neighbor to point p; null if the symbol table is empty.
     public Point2D nearest(Point2D p) {
-        // Return null if BST is empty.
-        if (bst.isEmpty()) {
+        // Omit p against itself; return null if no other point remains.
+        if (search(p.x(), p.y(), 1) == 0) {
             return null;
-        } else {
-            // Initialize return closest point tracker.
-            Point2D closestPoint = new Point2D(0.0, 0.0);
-            // Initialize closest relative distance tracker.
-            double closestDistance = Double.POSITIVE_INFINITY;
-            // Compute distance for all points relatove to p.
-            for (Point2D x : bst.keys()) {
-                // Evaluate closest distances, ommit p against itself.
-                if (p.distanceTo(x) < closestDistance && !p.equals(x)) {
-                    // Update trackers.
-                    closestDistance = p.distanceTo(x);
-                    closestPoint = x;
-                }
-            }
-            // Return closest point.
-            return closestPoint;
         }
+        return keys[pq.maxItem()];
     }
+
     // Return k points that are closest to point p.
     public Iterable<Point2D> nearest(Point2D p, int k) {
-        // Initialize MinPQ ordered by distance relative to p.
-        MinPQ<Point2D> pq = new MinPQ<Point2D>(p.DISTANCE_TO_ORDER);
-        // Compute all points distances.
-        for (Point2D x : bst.keys()) {
-            // Ommit evaluating p against itself.
-            if (p.distanceTo(x) > 0) {
-                // Insert point into MinPQ
-                pq.insert(x);
+        // Delegate to the radius-capped search, with no cap.
+        return nearest(p, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Return the (at most) k points other than p closest to p that are
+    // within distance maxRadius of it, closest first.
+    public Iterable<Point2D> nearest(Point2D p, int k, double maxRadius) {
+        int n = search(p.x(), p.y(), k, maxRadius * maxRadius);
+        // Drain the max-heap so that the points come out closest first.
+        Point2D[] a = new Point2D[n];
+        for (int i = n - 1; i >= 0; i--) {
+            a[i] = keys[pq.maxItem()];
+            pq.delMax();
+        }
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < n; i++) {
+            q.enqueue(a[i]);
+        }
+        return q;
+    }
+
+    // Return all points other than p within distance r of p.
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        // Compare every point against the squared radius.
+        for (int i = 0; i < bst.size(); i++) {
+            double dx = keys[i].x() - p.x();
+            double dy = keys[i].y() - p.y();
+            if ((dx != 0.0 || dy != 0.0) && dx*dx + dy*dy <= r * r) {
+                q.enqueue(keys[i]);
             }
         }
-        // Initialize return queue.
-        Queue<Point2D> kPoints = new Queue<Point2D>();
-        // Load k smallest distance points into queue.
-        for (int i = 0; i < k; i++) {
-            kPoints.enqueue(pq.delMin());
+        return q;
+    }
+
+    // Write the values of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearest(double x, double y, int k, Value[] out) {
+        int n = search(x, y, k);
+        for (int i = n - 1; i >= 0; i--) {
+            out[i] = vals[pq.maxItem()];
+            pq.delMax();
         }
-        // Return iterable queue with k closest points to p.
-        return kPoints;
+        return n;
+    }
+
+    // Write the numbers of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearestIndices(double x, double y, int k, int[] out) {
+        search(x, y, k);
+        return pq.drain(out, 0);
+    }
+
+    // Collect the indices of the (at most) k points other than (x, y)
+    // closest to (x, y) in pq; return their number.
+    private int search(double x, double y, int k) {
+        return search(x, y, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Collect the indices of the (at most) k points other than (x, y)
+    // closest to (x, y) within squared distance maxKey in pq; return their
+    // number.
+    private int search(double x, double y, int k, double maxKey) {
+        pq.reset(k, maxKey);
+        if (sweep) {
+            sort();
+            sweep(x, y, pq);
+        } else {
+            scan(x, y, pq);
+        }
+        return pq.size();
+    }
+
+    // Offer every point other than (x, y) to pq.
+    private void scan(double x, double y, NeighborPQ pq) {
+        for (int i = 0; i < bst.size(); i++) {
+            double dx = keys[i].x() - x;
+            double dy = keys[i].y() - y;
+            if (dx != 0.0 || dy != 0.0) {
+                pq.offer(dx*dx + dy*dy, i);
+            }
+        }
+    }
+
+    // Offer the points other than (x, y) to pq, starting at the rank of y
+    // in the BST's order and sweeping outward in y until the y-gap alone
+    // is too wide for any further point to be kept.
+    private void sweep(double x, double y, NeighborPQ pq) {
+        int n = byY.length;
+        // Find the rank of y: the number of points below it.
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[byY[mid]].y() < y) lo = mid + 1;
+            else                        hi = mid;
+        }
+        // Take the closer of the next point below and above at each step.
+        int below = lo - 1, above = lo;
+        while (true) {
+            double dyBelow = below >= 0 ? y - keys[byY[below]].y() : Double.POSITIVE_INFINITY;
+            double dyAbove = above < n  ? keys[byY[above]].y() - y : Double.POSITIVE_INFINITY;
+            int i;
+            double dy;
+            if (dyBelow <= dyAbove) {
+                dy = dyBelow;
+                i = below;
+            } else {
+                dy = dyAbove;
+                i = above;
+            }
+            // Every remaining point is at least dy away.
+            if (dy * dy >= pq.bound()) {
+                return;
+            }
+            if (i == below) below--;
+            else            above++;
+            double dx = keys[byY[i]].x() - x;
+            if (dx != 0.0 || dy != 0.0) {
+                pq.offer(dx*dx + dy*dy, byY[i]);
+            }
+        }
+    }
+
+    // Index the points in the order of the BST, by y and then x, if a
+    // point was added since the last query.
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+        byY = new int[bst.size()];
+        int r = 0;
+        for (Point2D p : bst.keys()) {
+            byY[r++] = bst.get(p);
+        }
+        sorted = true;
+    }
+
+    // Return the graph joining each point to the (at most) k other points
+    // closest to it. Rows are computed in parallel.
+    public NeighborGraph<Value> allNearest(int k) {
+        int n = bst.size();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = keys[i].x();
+            ys[i] = keys[i].y();
+        }
+        return allNearest(xs, ys, Math.min(k, n - 1));
+    }
+
+    // Return the graph joining each query point (xs[i], ys[i]) to the (at
+    // most) k points other than itself closest to it. Rows are computed in
+    // parallel.
+    public NeighborGraph<Value> allNearest(final double[] xs,
+                                           final double[] ys, int k) {
+        if (sweep) {
+            sort();
+        }
+        return NeighborGraph.build(xs.length, Math.min(k, bst.size()), null,
+            vals.clone(), new NeighborGraph.RowSearch() {
+                public int search(int i, NeighborPQ pq, int[] adjacent, int lo) {
+                    if (sweep) {
+                        sweep(xs[i], ys[i], pq);
+                    } else {
+                        scan(xs[i], ys[i], pq);
+                    }
+                    return pq.drain(adjacent, lo);
+                }
+            });
     }
 
     // Test client. [DO NOT EDIT]
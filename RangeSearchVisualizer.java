@@ -1,8 +1,8 @@
 /*************************************************************************
  *  Compilation:  javac RangeSearchVisualizer.java
- *  Execution:    java RangeSearchVisualizer <input>
- *  Dependencies: PointSET.java KdTree.java Point2D.java RectHV.java
- *                StdDraw.java In.java
+ *  Execution:    java RangeSearchVisualizer <input> [kdtree|flat|grid|scan|brute]
+ *  Dependencies: PointST.java KdTreeST.java FlatKdTreeST.java HashGridST.java
+ *                ScanST.java Point2D.java RectHV.java StdDraw.java In.java
  *
  *  Read points from a file (given as the command-line argument) and
  *  draw to standard draw. Also draw all of the points in the rectangle
@@ -10,6 +10,8 @@
  *
  *  The range search results using the brute-force algorithm are drawn
  *  in red; the results using the kd-tree algorithms are drawn in blue.
+ *  An optional second command-line argument selects another data type to
+ *  draw in blue instead of the kd-tree.
  *
  *************************************************************************/
 
@@ -18,18 +20,24 @@ public class RangeSearchVisualizer {
     public static void main(String[] args) {
 
         String filename = args[0];
+        String type = args.length > 1 ? args[1] : "kdtree";
         In in = new In(filename);
 
         StdDraw.show(0);
 
         // initialize the data structures with N points from standard input
         PointST<Integer> brute = new PointST<Integer>();
-        KdTreeST<Integer> kdtree = new KdTreeST<Integer>();
+        ST<Integer> st;
+        if      (type.equals("brute")) st = new PointST<Integer>();
+        else if (type.equals("flat"))  st = new FlatKdTreeST<Integer>();
+        else if (type.equals("grid"))  st = new HashGridST<Integer>();
+        else if (type.equals("scan"))  st = new ScanST<Integer>();
+        else                           st = new KdTreeST<Integer>();
         for (int i = 0; !in.isEmpty(); i++) {
             double x = in.readDouble();
             double y = in.readDouble();
             Point2D p = new Point2D(x, y);
-            kdtree.put(p, i);
+            st.put(p, i);
             brute.put(p, i);
         }
 
@@ -88,10 +96,10 @@ public class RangeSearchVisualizer {
             for (Point2D p : brute.range(rect))
                 p.draw();
 
-            // draw the range search results for kd-tree in blue
+            // draw the range search results for the selected data type in blue
             StdDraw.setPenRadius(.02);
             StdDraw.setPenColor(StdDraw.BLUE);
-            for (Point2D p : kdtree.range(rect))
+            for (Point2D p : st.range(rect))
                 p.draw();
 
             StdDraw.show(40);
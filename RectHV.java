@@ -67,6 +67,12 @@ public final class RectHV {
             && (p.y() >= ymin) && (p.y() <= ymax);
     }
 
+    // does this axis-aligned rectangle contain the point (x, y)?
+    public boolean contains(double x, double y) {
+        return (x >= xmin) && (x <= xmax)
+            && (y >= ymin) && (y <= ymax);
+    }
+
     // are the two axis-aligned rectangles equal?
     public boolean equals(Object y) {
         if (y == this) return true;
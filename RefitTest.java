@@ -0,0 +1,96 @@
+/*************************************************************************
+ *  Compilation:  javac RefitTest.java
+ *  Execution:    java RefitTest < input.txt
+ *  Dependencies: FlatKdTreeST.java Flock.java Boid.java Point2D.java
+ *                Queue.java StdIn.java StdOut.java StdRandom.java
+ *
+ *  Test client for moving the points of a FlatKdTreeST in place, the way
+ *  the refit mode of BoidSimulator moves a flock from frame to frame.
+ *
+ *  The points of the input become the boids of a flock, put in a
+ *  FlatKdTreeST in order. Every frame, two boids swap positions and the
+ *  rest drift a little, then the whole flock is moved with moveAll(). The
+ *  nearest neighbors of every boid must then match those of a FlatKdTreeST
+ *  built from scratch. Last, two boids moved onto the same point must be
+ *  rejected with the table left as it was.
+ *
+ *  % java RefitTest < sample_input/input10K.txt
+ *  10 frames, 10000 boids: ok
+ *  collision rejected: ok
+ *
+ *************************************************************************/
+
+public class RefitTest {
+    private static final int FRAMES = 10;
+    private static final int K = 5;
+
+    // Return true if st and a FlatKdTreeST built from scratch from the
+    // flock give every boid the same k nearest boids.
+    private static boolean matches(FlatKdTreeST<Boid> st, Flock flock) {
+        FlatKdTreeST<Boid> fresh = new FlatKdTreeST<Boid>();
+        for (int i = 0; i < flock.size(); i++)
+            fresh.put(flock.boid(i).position(), flock.boid(i));
+        int[] a = new int[K];
+        int[] b = new int[K];
+        for (int i = 0; i < flock.size(); i++) {
+            Point2D p = flock.boid(i).position();
+            if (st.get(p) != flock.boid(i)) return false;
+            int n = st.nearestIndices(p.x(), p.y(), K, a);
+            if (n != fresh.nearestIndices(p.x(), p.y(), K, b)) return false;
+            for (int j = 0; j < n; j++)
+                if (a[j] != b[j]) return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        Queue<Point2D> points = new Queue<Point2D>();
+        while (!StdIn.isEmpty()) {
+            double x = StdIn.readDouble();
+            double y = StdIn.readDouble();
+            points.enqueue(new Point2D(x, y));
+        }
+        int N = points.size();
+        Flock flock = new Flock(N);
+        FlatKdTreeST<Boid> st = new FlatKdTreeST<Boid>();
+        int n = 0;
+        for (Point2D p : points) {
+            flock.set(n, p.x(), p.y(), 0.0, 0.0);
+            st.put(flock.boid(n).position(), flock.boid(n));
+            n++;
+        }
+
+        // Swap two boids and let the others drift.
+        StdRandom.setSeed(1);
+        boolean ok = true;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int i = StdRandom.uniform(N);
+            int j = (i + 1 + StdRandom.uniform(N - 1)) % N;
+            double xi = flock.x(i), yi = flock.y(i);
+            flock.setPosition(i, flock.x(j), flock.y(j));
+            flock.setPosition(j, xi, yi);
+            for (int b = 0; b < N; b++) {
+                if (b == i || b == j) continue;
+                flock.setPosition(b, flock.x(b) + StdRandom.uniform(-1e-3, 1e-3),
+                                     flock.y(b) + StdRandom.uniform(-1e-3, 1e-3));
+            }
+            st.moveAll(flock.xs(), flock.ys());
+            ok = ok && matches(st, flock);
+        }
+        StdOut.println(FRAMES + " frames, " + N + " boids: " + (ok ? "ok" : "FAILED"));
+
+        // Move boid 1 onto boid 0.
+        double x1 = flock.x(1), y1 = flock.y(1);
+        flock.setPosition(1, flock.x(0), flock.y(0));
+        boolean rejected = false;
+        try {
+            st.moveAll(flock.xs(), flock.ys());
+        }
+        catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        flock.setPosition(1, x1, y1);
+        rejected = rejected && matches(st, flock);
+        StdOut.println("collision rejected: " + (rejected ? "ok" : "FAILED"));
+    }
+}
@@ -23,9 +23,38 @@ public interface ST<Value> {
     // rect.
     public Iterable<Point2D> range(RectHV rect);
 
+    // Write the numbers of the points inside the rectangle rect into out,
+    // which must have room for size() of them; return the number written.
+    // Points are numbered in the order they were first put.
+    public int rangeIndices(RectHV rect, int[] out);
+
     // Return a nearest neighbor to point p; null if the symbol table is empty.
     public Point2D nearest(Point2D p);
 
     // Return k points that are closest to point p.
     public Iterable<Point2D> nearest(Point2D p, int k);
+
+    // Return the (at most) k points other than p closest to p that are
+    // within distance maxRadius of it, closest first.
+    public Iterable<Point2D> nearest(Point2D p, int k, double maxRadius);
+
+    // Return all points other than p within distance r of p.
+    public Iterable<Point2D> withinRadius(Point2D p, double r);
+
+    // Write the values of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearest(double x, double y, int k, Value[] out);
+
+    // Write the numbers of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearestIndices(double x, double y, int k, int[] out);
+
+    // Return the graph joining each point to the (at most) k other points
+    // closest to it. Points are numbered in the order they were first put.
+    public NeighborGraph<Value> allNearest(int k);
+
+    // Return the graph joining each query point (xs[i], ys[i]) to the (at
+    // most) k points other than itself closest to it. Row i is query i, and
+    // neighbors are numbered like the points of allNearest(k).
+    public NeighborGraph<Value> allNearest(double[] xs, double[] ys, int k);
 }
@@ -0,0 +1,282 @@
+/*************************************************************************
+ *  Compilation:  javac STBenchmark.java
+ *  Execution:    java STBenchmark <brute|sweep|kdtree|flat|grid|scan>[,...]
+ *                <input | # of points> [k] [rect size]
+ *  Dependencies: PointST.java KdTreeST.java FlatKdTreeST.java HashGridST.java
+ *                ScanST.java Point2D.java RectHV.java In.java StdRandom.java
+ *                StdOut.java
+ *
+ *  Time the symbol table operations of one or more data types on the
+ *  points of an input file, or on the given number of random points in
+ *  the unit square.
+ *
+ *  Each operation is run in batches sized to take about 100 ms: a few
+ *  batches warm up the JIT, then the mean and standard deviation of the
+ *  time per operation over the measured batches are printed, with the
+ *  bytes allocated per operation (on JVMs that count them per thread).
+ *  get and contains look up stored points, range queries a square of side
+ *  rect size (default 0.01) and the nearest queries use random points,
+ *  with k neighbors (default 10) for nearest(p, k) and for the
+ *  nearest(x, y, k, out) overload that writes values into a buffer.
+ *
+ *  With at least 100,000 points, the bytes retained per stored point, the
+ *  points themselves included, are printed last: the heap in use after
+ *  collecting until it stops shrinking, with and without a symbol table.
+ *  With fewer points the difference is lost in the noise of the
+ *  collector, so it is not printed.
+ *
+ *  Random points and queries come from a fixed seed, so every run and
+ *  every data type sees the same workload.
+ *
+ *  % java STBenchmark brute,kdtree sample_input/input10K.txt 10 0.01
+ *
+ *  The JVM's own flags apply, for example -Xmx to give the largest
+ *  inputs room or -XX:+UseParallelGC to change the collector.
+ *
+ *************************************************************************/
+
+import java.lang.management.ManagementFactory;
+
+public class STBenchmark {
+    private static final long BATCH_NANOS = 100000000L; // target batch time
+    private static final int WARMUP_BATCHES = 3;
+    private static final int MEASURED_BATCHES = 5;
+    private static final int QUERIES = 1024;            // distinct queries
+    private static final long SEED = 42;
+    private static final int RETAINED_MIN = 100000;     // points to measure heap
+
+    // Results are folded into sink so the JIT cannot drop the operations.
+    private static long sink;
+
+    // An operation to time; run(reps) performs it reps times.
+    private interface Operation {
+        public void run(int reps);
+    }
+
+    // Return a new, empty symbol table of the given type.
+    private static ST<Integer> create(String type) {
+        if (type.equals("brute"))  return new PointST<Integer>();
+        if (type.equals("sweep"))  return new PointST<Integer>(true);
+        if (type.equals("kdtree")) return new KdTreeST<Integer>();
+        if (type.equals("flat"))   return new FlatKdTreeST<Integer>();
+        if (type.equals("grid"))   return new HashGridST<Integer>();
+        if (type.equals("scan"))   return new ScanST<Integer>();
+        throw new IllegalArgumentException("Unknown data type: " + type);
+    }
+
+    // Return the points of the named file, or the given number of random
+    // points in the unit square.
+    private static Point2D[] points(String input) {
+        if (input.matches("\\d+")) {
+            Point2D[] points = new Point2D[Integer.parseInt(input)];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            }
+            return points;
+        }
+        Queue<Point2D> q = new Queue<Point2D>();
+        In in = new In(input);
+        while (!in.isEmpty()) {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            q.enqueue(new Point2D(x, y));
+        }
+        Point2D[] points = new Point2D[q.size()];
+        int i = 0;
+        for (Point2D p : q) {
+            points[i++] = p;
+        }
+        return points;
+    }
+
+    // Return the number of bytes the current thread has allocated so far,
+    // or -1 if the JVM does not count them.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                return counter.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    // Return the number of bytes in use on the heap after a full collection.
+    private static long usedBytes() {
+        java.lang.management.MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Collect until the heap stops shrinking.
+        for (int i = 0; i < 16; i++) {
+            bean.gc();
+            long now = bean.getHeapMemoryUsage().getUsed();
+            if (now >= used && i >= 2) break;
+            used = Math.min(used, now);
+        }
+        return used;
+    }
+
+    // Time op, where one rep performs opsPerRep operations, and print a
+    // line of results.
+    private static void time(String name, Operation op, int opsPerRep) {
+        // Size the batches while warming up.
+        int reps = 1;
+        while (true) {
+            long start = System.nanoTime();
+            op.run(reps);
+            if (System.nanoTime() - start >= BATCH_NANOS / 4 || reps >= (1 << 30)) break;
+            reps *= 2;
+        }
+        long start = System.nanoTime();
+        op.run(reps);
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        reps = (int) Math.max(1, Math.min(1 << 30, reps * (double) BATCH_NANOS / elapsed));
+        for (int b = 0; b < WARMUP_BATCHES; b++) {
+            op.run(reps);
+        }
+
+        double ops = (double) reps * opsPerRep;
+        double sum = 0.0, sumOfSquares = 0.0;
+        long allocated = 0;
+        for (int b = 0; b < MEASURED_BATCHES; b++) {
+            long bytes = allocatedBytes();
+            start = System.nanoTime();
+            op.run(reps);
+            double nanos = (System.nanoTime() - start) / ops;
+            allocated += allocatedBytes() - bytes;
+            sum += nanos;
+            sumOfSquares += nanos * nanos;
+        }
+        double mean = sum / MEASURED_BATCHES;
+        double stddev = Math.sqrt(Math.max(0.0, sumOfSquares / MEASURED_BATCHES - mean * mean));
+        String bytes = allocatedBytes() < 0 ? "n/a"
+                     : String.format("%.1f", allocated / (ops * MEASURED_BATCHES));
+        StdOut.printf("  %-16s %12.1f %10.1f %12s%n", name, mean, stddev, bytes);
+    }
+
+    // Benchmark every operation of the given type of symbol table.
+    private static void benchmark(final String type, final Point2D[] points,
+                                  final int k, final double side) {
+        final int N = points.length;
+        final ST<Integer> st = create(type);
+        for (int i = 0; i < N; i++) {
+            st.put(points[i], i);
+        }
+
+        // Stored points in random order, and random queries, both fixed.
+        final Point2D[] stored = new Point2D[QUERIES];
+        final Point2D[] queries = new Point2D[QUERIES];
+        final RectHV[] rects = new RectHV[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            stored[i] = points[StdRandom.uniform(N)];
+            queries[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            double x = StdRandom.uniform() * (1.0 - side);
+            double y = StdRandom.uniform() * (1.0 - side);
+            rects[i] = new RectHV(x, y, x + side, y + side);
+        }
+
+        StdOut.printf("%s: %d points, k = %d, rect size = %s%n", type, N, k, side);
+        StdOut.printf("  %-16s %12s %10s %12s%n", "operation", "ns/op", "+/-", "bytes/op");
+
+        time("put", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    ST<Integer> fresh = create(type);
+                    for (int i = 0; i < N; i++) {
+                        fresh.put(points[i], i);
+                    }
+                    sink += fresh.size();
+                }
+            }
+        }, N);
+        time("get", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    sink += st.get(stored[r & (QUERIES - 1)]);
+                }
+            }
+        }, 1);
+        time("contains", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    if (st.contains(stored[r & (QUERIES - 1)])) sink++;
+                }
+            }
+        }, 1);
+        time("range", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    for (Point2D p : st.range(rects[r & (QUERIES - 1)])) {
+                        sink++;
+                    }
+                }
+            }
+        }, 1);
+        time("nearest(p)", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    sink += st.nearest(queries[r & (QUERIES - 1)]).hashCode();
+                }
+            }
+        }, 1);
+        time("nearest(p, k)", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    for (Point2D p : st.nearest(queries[r & (QUERIES - 1)], k)) {
+                        sink++;
+                    }
+                }
+            }
+        }, 1);
+        final Integer[] out = new Integer[Math.max(k, 0)];
+        time("nearest(x, y, k)", new Operation() {
+            public void run(int reps) {
+                for (int r = 0; r < reps; r++) {
+                    Point2D q = queries[r & (QUERIES - 1)];
+                    sink += st.nearest(q.x(), q.y(), k, out);
+                }
+            }
+        }, 1);
+
+        // Measure the heap held by a symbol table of fresh copies of the
+        // points, so that the points it keeps are counted too.
+        if (N < RETAINED_MIN) {
+            StdOut.printf("  retained n/a, needs %d points%n", RETAINED_MIN);
+            return;
+        }
+        double[] xs = new double[N];
+        double[] ys = new double[N];
+        for (int i = 0; i < N; i++) {
+            xs[i] = points[i].x();
+            ys[i] = points[i].y();
+        }
+        Integer[] values = new Integer[N];
+        for (int i = 0; i < N; i++) {
+            values[i] = i;
+        }
+        long before = usedBytes();
+        ST<Integer> retained = create(type);
+        for (int i = 0; i < N; i++) {
+            retained.put(new Point2D(xs[i], ys[i]), values[i]);
+        }
+        // Queries may build auxiliary structures, so run one first.
+        sink += retained.nearest(queries[0]).hashCode();
+        long after = usedBytes();
+        sink += retained.size();
+        StdOut.printf("  retained %.1f bytes/point%n", (after - before) / (double) N);
+    }
+
+    public static void main(String[] args) {
+        String[] types = args[0].split(",");
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        double side = args.length > 3 ? Double.parseDouble(args[3]) : 0.01;
+        StdRandom.setSeed(SEED);
+        Point2D[] points = points(args[1]);
+        for (String type : types) {
+            // Every type gets the same queries.
+            StdRandom.setSeed(SEED);
+            benchmark(type, points, k, side);
+        }
+        if (sink == 42) StdOut.println();
+    }
+}
@@ -0,0 +1,352 @@
+/*************************************************************************
+ *  Compilation:  javac ScanST.java
+ *  Execution:    java ScanST < input.txt
+ *  Dependencies: ST.java Point2D.java RectHV.java Queue.java NeighborPQ.java
+ *                PointHash.java ParallelFor.java StdIn.java StdOut.java
+ *
+ *  A brute-force symbol table of points that answers every geometric
+ *  query by scanning packed coordinate arrays.
+ *
+ *  Points and values are kept in insertion order in parallel arrays, with
+ *  an open-addressing hash table from coordinates to index for put, get
+ *  and contains. A k-nearest-neighbor query scans the points in blocks of
+ *  BLOCK: a first loop computes the squared distances of the whole block
+ *  into a buffer, a loop simple enough for the JIT compiler to turn into
+ *  SIMD instructions, and a second loop offers only the distances below
+ *  the current bound to a NeighborPQ. Scans of at least PARALLEL_SIZE
+ *  points are split into chunks searched on all cores, whose candidates
+ *  are then merged.
+ *
+ *  For small k and up to tens of thousands of points, such a scan is
+ *  competitive with a tree: it does no pointer chasing, no branching on
+ *  the tree's shape and no work building an index.
+ *
+ *************************************************************************/
+
+public class ScanST<Value> implements ST<Value> {
+    private static final int INIT_CAPACITY = 16;     // initial array capacity
+    private static final int BLOCK = 512;            // points per scan block
+    private static final int PARALLEL_SIZE = 1 << 16; // min points to split
+    private static final int CHUNK = 1 << 14;        // points per parallel chunk
+
+    private double[] xs, ys; // point coordinates, in insertion order
+    private Value[] vals;    // associated values, in insertion order
+    private int N;           // number of points in the symbol table
+    private PointHash table; // hash of point to index
+
+    private NeighborPQ pq;   // indices of the k-NN candidates
+    private double[] dist;   // squared distances of the current block
+
+    // Construct an empty symbol table of points.
+    public ScanST() {
+        xs = new double[INIT_CAPACITY];
+        ys = new double[INIT_CAPACITY];
+        vals = (Value[]) new Object[INIT_CAPACITY];
+        table = new PointHash(INIT_CAPACITY);
+        pq = new NeighborPQ(1);
+        dist = new double[BLOCK];
+        N = 0;
+    }
+
+    // Return true if the symbol table is empty, and false otherwise.
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+    // Return the number points in the symbol table.
+    public int size() {
+        return N;
+    }
+
+    // Associate the value val with point p.
+    public void put(Point2D p, Value val) {
+        // Replace the value if the point is already present.
+        int i = indexOf(p.x(), p.y());
+        if (i >= 0) {
+            vals[i] = val;
+            return;
+        }
+        // Grow the arrays and the hash table if they are full.
+        if (N == xs.length) {
+            resize(2 * xs.length);
+        }
+        xs[N] = p.x();
+        ys[N] = p.y();
+        vals[N] = val;
+        table.insert(xs, ys, N);
+        N++;
+    }
+
+    // Return the value associated with point p.
+    public Value get(Point2D p) {
+        int i = indexOf(p.x(), p.y());
+        if (i < 0) {
+            return null;
+        }
+        return vals[i];
+    }
+
+    // Return true if the symbol table contains the point p, and false
+    // otherwise.
+    public boolean contains(Point2D p) {
+        return indexOf(p.x(), p.y()) >= 0;
+    }
+
+    // Return all points in the symbol table, in insertion order.
+    public Iterable<Point2D> points() {
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < N; i++) {
+            q.enqueue(new Point2D(xs[i], ys[i]));
+        }
+        return q;
+    }
+
+    // Return all points in the symbol table that are inside the rectangle
+    // rect.
+    public Iterable<Point2D> range(RectHV rect) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < N; i++) {
+            if (rect.contains(xs[i], ys[i])) {
+                q.enqueue(new Point2D(xs[i], ys[i]));
+            }
+        }
+        return q;
+    }
+
+    // Write the numbers of the points inside the rectangle rect into out,
+    // which must have room for size() of them; return the number written.
+    public int rangeIndices(RectHV rect, int[] out) {
+        int n = 0;
+        for (int i = 0; i < N; i++) {
+            if (rect.contains(xs[i], ys[i])) {
+                out[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    // Return a nearest neighbor to point p; null if the symbol table is empty.
+    public Point2D nearest(Point2D p) {
+        // Account for the query point returning itself.
+        if (search(p.x(), p.y(), 1, Double.POSITIVE_INFINITY) == 0) {
+            return null;
+        }
+        int i = pq.maxItem();
+        return new Point2D(xs[i], ys[i]);
+    }
+
+    // Return k points that are closest to point p.
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        return nearest(p, k, Double.POSITIVE_INFINITY);
+    }
+
+    // Return the (at most) k points other than p closest to p that are
+    // within distance maxRadius of it, closest first.
+    public Iterable<Point2D> nearest(Point2D p, int k, double maxRadius) {
+        int n = search(p.x(), p.y(), k, maxRadius * maxRadius);
+        // Drain the max-heap so that the points come out closest first.
+        Point2D[] a = new Point2D[n];
+        for (int j = n - 1; j >= 0; j--) {
+            int i = pq.maxItem();
+            a[j] = new Point2D(xs[i], ys[i]);
+            pq.delMax();
+        }
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int j = 0; j < n; j++) {
+            q.enqueue(a[j]);
+        }
+        return q;
+    }
+
+    // Return all points other than p within distance r of p.
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        Queue<Point2D> q = new Queue<Point2D>();
+        for (int i = 0; i < N; i++) {
+            double dx = xs[i] - p.x();
+            double dy = ys[i] - p.y();
+            if ((dx != 0.0 || dy != 0.0) && dx*dx + dy*dy <= r * r) {
+                q.enqueue(new Point2D(xs[i], ys[i]));
+            }
+        }
+        return q;
+    }
+
+    // Write the values of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearest(double x, double y, int k, Value[] out) {
+        int n = search(x, y, k, Double.POSITIVE_INFINITY);
+        for (int j = n - 1; j >= 0; j--) {
+            out[j] = vals[pq.maxItem()];
+            pq.delMax();
+        }
+        return n;
+    }
+
+    // Write the numbers of the (at most) k points other than (x, y) closest
+    // to (x, y) into out, closest first; return the number written.
+    public int nearestIndices(double x, double y, int k, int[] out) {
+        search(x, y, k, Double.POSITIVE_INFINITY);
+        return pq.drain(out, 0);
+    }
+
+    // Return the graph joining each point to the (at most) k other points
+    // closest to it. Rows are computed in parallel.
+    public NeighborGraph<Value> allNearest(int k) {
+        return allNearest(xs, ys, N, Math.min(k, N - 1));
+    }
+
+    // Return the graph joining each query point (qx[i], qy[i]) to the (at
+    // most) k points other than itself closest to it. Rows are computed in
+    // parallel.
+    public NeighborGraph<Value> allNearest(double[] qx, double[] qy, int k) {
+        return allNearest(qx, qy, qx.length, Math.min(k, N));
+    }
+
+    // Return the graph joining each of the first n query points to the (at
+    // most) degree points other than itself closest to it. Each thread
+    // scans with a block buffer of its own.
+    private NeighborGraph<Value> allNearest(final double[] qx,
+                                            final double[] qy, int n,
+                                            int degree) {
+        final ThreadLocal<double[]> buffers = new ThreadLocal<double[]>() {
+            protected double[] initialValue() {
+                return new double[BLOCK];
+            }
+        };
+        return NeighborGraph.build(n, degree, null, vals.clone(),
+            new NeighborGraph.RowSearch() {
+                public int search(int i, NeighborPQ pq, int[] adjacent, int lo) {
+                    scan(0, N, qx[i], qy[i], pq, buffers.get());
+                    return pq.drain(adjacent, lo);
+                }
+            });
+    }
+
+    // Collect into pq the (at most) k points within squared distance
+    // maxKey closest to (x, y), skipping points equal to (x, y); return the
+    // number collected.
+    private int search(final double x, final double y, int k,
+                       final double maxKey) {
+        pq.reset(k, maxKey);
+        if (N == 0 || k <= 0) {
+            return 0;
+        }
+        if (N < PARALLEL_SIZE) {
+            scan(0, N, x, y, pq, dist);
+            return pq.size();
+        }
+        // Search each chunk on its own, keeping at most k candidates each.
+        final int want = Math.min(k, N);
+        final int chunks = (N + CHUNK - 1) / CHUNK;
+        final int[] found = new int[chunks * want];
+        final int[] counts = new int[chunks];
+        ParallelFor.run(chunks, 1, new ParallelFor.Body() {
+            public void run(int lo, int hi) {
+                NeighborPQ candidates = new NeighborPQ(want);
+                double[] buffer = new double[BLOCK];
+                for (int c = lo; c < hi; c++) {
+                    candidates.reset(want, maxKey);
+                    scan(c * CHUNK, Math.min(N, (c + 1) * CHUNK), x, y,
+                         candidates, buffer);
+                    counts[c] = candidates.drain(found, c * want);
+                }
+            }
+        });
+        // Merge the candidates of every chunk.
+        for (int c = 0; c < chunks; c++) {
+            for (int j = c * want; j < c * want + counts[c]; j++) {
+                int i = found[j];
+                double dx = xs[i] - x;
+                double dy = ys[i] - y;
+                pq.offer(dx*dx + dy*dy, i);
+            }
+        }
+        return pq.size();
+    }
+
+    // Offer the points at indices [lo, hi) other than (x, y) to pq, a
+    // block at a time, using buffer to hold the block's squared distances.
+    private void scan(int lo, int hi, double x, double y, NeighborPQ pq,
+                      double[] buffer) {
+        for (int start = lo; start < hi; start += BLOCK) {
+            int n = Math.min(BLOCK, hi - start);
+            // Squared distances of the block, with no branches.
+            for (int j = 0; j < n; j++) {
+                double dx = xs[start + j] - x;
+                double dy = ys[start + j] - y;
+                buffer[j] = dx*dx + dy*dy;
+            }
+            // Offer the few that beat the bound.
+            double bound = pq.bound();
+            for (int j = 0; j < n; j++) {
+                if (buffer[j] < bound) {
+                    int i = start + j;
+                    if (xs[i] != x || ys[i] != y) {
+                        pq.offer(buffer[j], i);
+                        bound = pq.bound();
+                    }
+                }
+            }
+        }
+    }
+
+   /*************************************************************************
+    *  Point hashing and array management.
+    *************************************************************************/
+
+    // Return the index of point (x, y), or -1 if it is absent.
+    private int indexOf(double x, double y) {
+        return table.indexOf(xs, ys, x, y);
+    }
+
+    // Move the points to arrays of the given capacity and rehash them.
+    private void resize(int capacity) {
+        double[] tx = new double[capacity];
+        double[] ty = new double[capacity];
+        Value[] tv = (Value[]) new Object[capacity];
+        for (int i = 0; i < N; i++) {
+            tx[i] = xs[i];
+            ty[i] = ys[i];
+            tv[i] = vals[i];
+        }
+        xs = tx;
+        ys = ty;
+        vals = tv;
+        table.rehash(xs, ys, N, capacity);
+    }
+
+    // Test client. [DO NOT EDIT]
+    public static void main(String[] args) {
+        ScanST<Integer> st = new ScanST<Integer>();
+        Point2D query = new Point2D(0.661633, 0.287141);
+        Point2D origin = new Point2D(0, 0);
+        int i = 0;
+        while (!StdIn.isEmpty()) {
+            double x = StdIn.readDouble();
+            double y = StdIn.readDouble();
+            Point2D p = new Point2D(x, y);
+            st.put(p, i++);
+        }
+        StdOut.println("st.empty()? " + st.isEmpty());
+        StdOut.println("st.size() = " + st.size());
+        StdOut.println("First five values:");
+        i = 0;
+        for (Point2D p : st.points()) {
+            StdOut.println("  " + st.get(p));
+            if (i++ == 5) {
+                break;
+            }
+        }
+        StdOut.println("st.contains(" + query + ")? " + st.contains(query));
+        StdOut.println("st.contains(" + origin + ")? " + st.contains(origin));
+        StdOut.println("st.range([0.65, 0.68]x[0.28, 0.29]):");
+        for (Point2D p : st.range(new RectHV(0.65, 0.28, 0.68, 0.29))) {
+            StdOut.println("  " + p);
+        }
+        StdOut.println("st.nearest(" + query + ") = " + st.nearest(query));
+        StdOut.println("st.nearest(" + query + "):");
+        for (Point2D p : st.nearest(query, 7)) {
+            StdOut.println("  " + p);
+        }
+    }
+}
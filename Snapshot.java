@@ -0,0 +1,214 @@
+/*************************************************************************
+ *  Compilation:  javac Snapshot.java
+ *  Dependencies: Flock.java Hawk.java Point2D.java RectHV.java StdDraw.java
+ *                PixelRenderer.java
+ *
+ *  The positions of the boids in view and of all hawks at the end of one
+ *  step, and the center of mass of the flock, for drawing a frame.
+ *
+ *  A snapshot is filled by the thread that steps the simulation and read
+ *  by the thread that draws. The positions are copied into arrays of the
+ *  snapshot's own, sized for the whole flock and reused from one capture
+ *  to the next, so handing snapshots through a TripleBuffer costs no
+ *  allocation per frame. Only the boids a range query found in view need
+ *  be copied, and only they are drawn.
+ *
+ *  When too many boids are in view for their points to tell apart, a
+ *  snapshot can instead bin them into a grid of cells over the view,
+ *  keeping the number of boids and the sum of their velocities in each
+ *  cell. Like the positions, the boids binned are only those the range
+ *  query found. It then draws every cell shaded by how many boids it
+ *  holds, with a tick in the direction they head, at a cost that depends
+ *  only on the number of cells, however many boids there are.
+ *
+ *************************************************************************/
+
+import java.awt.Color;
+import java.util.Arrays;
+
+public class Snapshot {
+    // the shades of gray of the density map, by level
+    private static final Color[] GRAYS = new Color[256];
+    static {
+        for (int g = 0; g < GRAYS.length; g++)
+            GRAYS[g] = new Color(g, g, g);
+    }
+
+    private final double[] x, y;    // positions of the boids in view
+    private int n;                  // number of boids in view
+    private final double[] hx, hy;  // hawk positions
+
+    // In density mode, the view and the boids binned in each of its cells,
+    // row by row from the bottom left: their number, their largest number
+    // in a cell and the sums of their velocities.
+    private boolean density;
+    private RectHV view;
+    private final int cells;        // cells per side
+    private final int[] count;
+    private int maxCount;
+    private final double[] sumVx, sumVy;
+    private double meanX, meanY;    // center of mass of the boids
+    private long step;              // number of steps taken
+
+    // create a snapshot for N boids and H hawks, whose density map has
+    // the given number of cells per side
+    public Snapshot(int N, int H, int cells) {
+        x = new double[N];
+        y = new double[N];
+        hx = new double[H];
+        hy = new double[H];
+        this.cells = cells;
+        count = new int[cells * cells];
+        sumVx = new double[cells * cells];
+        sumVy = new double[cells * cells];
+    }
+
+    // copy the positions of the boids at the given points, or of every boid
+    // in flock if visible is null, and of the hawks, the center of mass and
+    // the number of steps taken
+    public void capture(Flock flock, Iterable<Point2D> visible, Hawk[] hawks,
+                        double meanX, double meanY, long step) {
+        density = false;
+        n = 0;
+        if (visible == null) {
+            for (int i = 0; i < flock.size(); i++) {
+                x[n] = flock.x(i);
+                y[n] = flock.y(i);
+                n++;
+            }
+        }
+        else {
+            for (Point2D p : visible) {
+                x[n] = p.x();
+                y[n] = p.y();
+                n++;
+            }
+        }
+        capture(hawks, meanX, meanY, step);
+    }
+
+    // bin the boids of flock whose indices are the first found of visible,
+    // the boids in view, or every boid in view if visible is null, into the
+    // cells of the density map, and copy the positions of the hawks, the
+    // center of mass and the number of steps taken
+    public void captureDensity(Flock flock, int[] visible, int found,
+                               RectHV view, Hawk[] hawks,
+                               double meanX, double meanY, long step) {
+        density = true;
+        this.view = view;
+        Arrays.fill(count, 0);
+        Arrays.fill(sumVx, 0.0);
+        Arrays.fill(sumVy, 0.0);
+        double xscale = cells / view.width();
+        double yscale = cells / view.height();
+        n = 0;
+        maxCount = 0;
+        if (visible == null) found = flock.size();
+        for (int j = 0; j < found; j++) {
+            int i = visible == null ? j : visible[j];
+            double cx = (flock.x(i) - view.xmin()) * xscale;
+            double cy = (flock.y(i) - view.ymin()) * yscale;
+            if (cx < 0 || cx >= cells || cy < 0 || cy >= cells) continue;
+            int c = (int) cy * cells + (int) cx;
+            count[c]++;
+            sumVx[c] += flock.vx(i);
+            sumVy[c] += flock.vy(i);
+            maxCount = Math.max(maxCount, count[c]);
+            n++;
+        }
+        capture(hawks, meanX, meanY, step);
+    }
+
+    // copy the positions of the hawks, the center of mass and the number
+    // of steps taken
+    private void capture(Hawk[] hawks, double meanX, double meanY, long step) {
+        for (int h = 0; h < hx.length; h++) {
+            hx[h] = hawks[h].x();
+            hy[h] = hawks[h].y();
+        }
+        this.meanX = meanX;
+        this.meanY = meanY;
+        this.step = step;
+    }
+
+    // accessor methods
+    public int size()      { return n;      }
+    public double meanX()  { return meanX;  }
+    public double meanY()  { return meanY;  }
+    public double hawkX(int h) { return hx[h]; }
+    public double hawkY(int h) { return hy[h]; }
+    public long step()     { return step;   }
+
+    // Return the gray level of cell c of the density map, from 255 for
+    // white to 51 for the fullest cell, so that the heading ticks still
+    // show: darker the more boids it holds, on a log scale.
+    private int gray(int c) {
+        double level = Math.log1p(count[c]) / Math.log1p(maxCount);
+        return (int) Math.round(255 * (1 - 0.8 * level));
+    }
+
+    // Return the length of the mean velocity of the boids in cell c.
+    private double speed(int c) {
+        return Math.hypot(sumVx[c], sumVy[c]) / count[c];
+    }
+
+    // draw the boids in black, or their density map in shades of gray with
+    // blue heading ticks, and the hawks in red
+    public void draw() {
+        if (density) {
+            double w = view.width() / cells;
+            double h = view.height() / cells;
+            for (int c = 0; c < count.length; c++) {
+                if (count[c] == 0) continue;
+                double cx = view.xmin() + (c % cells + 0.5) * w;
+                double cy = view.ymin() + (c / cells + 0.5) * h;
+                StdDraw.setPenColor(GRAYS[gray(c)]);
+                StdDraw.filledRectangle(cx, cy, w/2, h/2);
+            }
+            StdDraw.setPenColor(StdDraw.BLUE);
+            for (int c = 0; c < count.length; c++) {
+                if (count[c] == 0 || speed(c) == 0) continue;
+                double cx = view.xmin() + (c % cells + 0.5) * w;
+                double cy = view.ymin() + (c / cells + 0.5) * h;
+                double scale = 0.45 / (speed(c) * count[c]);
+                StdDraw.line(cx, cy, cx + sumVx[c] * scale * w, cy + sumVy[c] * scale * h);
+            }
+        }
+        else {
+            StdDraw.setPenColor(StdDraw.BLACK);
+            for (int i = 0; i < n; i++)
+                StdDraw.point(x[i], y[i]);
+        }
+        StdDraw.setPenColor(StdDraw.RED);
+        for (int h = 0; h < hx.length; h++)
+            StdDraw.point(hx[h], hy[h]);
+    }
+
+    // draw the boids and hawks as squares of size pixels, rasterizing the
+    // boids on all cores if parallel is true, or the density map the same
+    // way as draw()
+    public void draw(PixelRenderer renderer, int size, boolean parallel) {
+        if (density) {
+            double w = view.width() / cells;
+            double h = view.height() / cells;
+            for (int c = 0; c < count.length; c++) {
+                if (count[c] == 0) continue;
+                double x0 = view.xmin() + (c % cells) * w;
+                double y0 = view.ymin() + (c / cells) * h;
+                renderer.filledRectangle(x0, y0, x0 + w, y0 + h, gray(c) * 0x010101);
+            }
+            for (int c = 0; c < count.length; c++) {
+                if (count[c] == 0 || speed(c) == 0) continue;
+                double cx = view.xmin() + (c % cells + 0.5) * w;
+                double cy = view.ymin() + (c / cells + 0.5) * h;
+                double scale = 0.45 / (speed(c) * count[c]);
+                renderer.line(cx, cy, cx + sumVx[c] * scale * w, cy + sumVy[c] * scale * h, 0x0000FF);
+            }
+        }
+        else {
+            renderer.points(x, y, n, 0x000000, size, parallel);
+        }
+        for (int h = 0; h < hx.length; h++)
+            renderer.point(hx[h], hy[h], 0xFF0000, size);
+    }
+}
@@ -0,0 +1,61 @@
+/*************************************************************************
+ *  Compilation:  javac TripleBuffer.java
+ *
+ *  A lock-free triple buffer that hands the latest of a stream of items
+ *  from one writer thread to one reader thread.
+ *
+ *  The writer fills its back item and publishes it; the reader picks up
+ *  the most recently published item whenever it is ready for a new one.
+ *  Of the three items, one belongs to the writer, one to the reader and
+ *  one sits in the middle, and publishing or picking up swaps an item
+ *  with the middle one in a single atomic step, so neither side ever
+ *  waits for the other or sees an item the other is still using. Items
+ *  the reader was too slow for are simply overwritten.
+ *
+ *************************************************************************/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TripleBuffer<Item> {
+    private static final int FRESH = 4;  // set while the middle item is unread
+
+    private final Item[] items;          // the three items
+    private final AtomicInteger middle;  // index of the middle item, | FRESH
+    private int back;                    // index of the writer's item
+    private int front;                   // index of the reader's item
+
+    // Create a triple buffer of the three given items; the reader starts
+    // with the first and the writer with the second.
+    public TripleBuffer(Item first, Item second, Item third) {
+        items = (Item[]) new Object[] { first, second, third };
+        front = 0;
+        back = 1;
+        middle = new AtomicInteger(2);
+    }
+
+    // Return the writer's item, to be filled before publish(). Writer only.
+    public Item back() {
+        return items[back];
+    }
+
+    // Publish the writer's item as the latest and give the writer another
+    // one. Writer only.
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & ~FRESH;
+    }
+
+    // Return the reader's item. Reader only.
+    public Item front() {
+        return items[front];
+    }
+
+    // Make the latest published item the reader's, if there is one it has
+    // not had yet; return true if there was. Reader only.
+    public boolean update() {
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+        front = middle.getAndSet(front) & ~FRESH;
+        return true;
+    }
+}